@@ -0,0 +1,115 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.common.io.MessageReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Reads 1 MiB of small frames with the baseline and the current MessageReader, every read
+// returns a full buffer (16 KiB) so each read contains many frames
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageReaderBenchmark {
+
+	private static final int DATA_LENGTH = 1024 * 1024;
+	private static final byte[] START = "<m>".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+	private static final byte[] END = "</m>".getBytes(StandardCharsets.US_ASCII); //$NON-NLS-1$
+
+	@Param({ "32", "256", "4096" })
+	public int frameLength;
+
+	private byte[] data;
+
+	@Setup
+	public void setup() {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(DATA_LENGTH + frameLength);
+		byte[] payload = new byte[frameLength - START.length - END.length];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) ('a' + (i % 26));
+		}
+
+		while (out.size() < DATA_LENGTH) {
+			out.write(START, 0, START.length);
+			out.write(payload, 0, payload.length);
+			out.write(END, 0, END.length);
+		}
+
+		data = out.toByteArray();
+
+	}
+
+	@Benchmark
+	public long baseline() throws Exception {
+
+		long[] count = { 0 };
+
+		new BaselineMessageReader(START, END, MessageReader.DEFAULT_BUFFER_SIZE) {
+
+			@Override
+			protected void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+				count[0] += messageEnd - messageStart;
+			}
+		}.readAllBytes(new ByteArrayInputStream(data));
+
+		return count[0];
+
+	}
+
+	@Benchmark
+	public long current() throws Exception {
+
+		long[] count = { 0 };
+
+		new MessageReader(START, END, MessageReader.DEFAULT_BUFFER_SIZE) {
+
+			@Override
+			protected void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+				count[0] += messageEnd - messageStart;
+			}
+		}.readAllBytes(new ByteArrayInputStream(data));
+
+		return count[0];
+
+	}
+
+}
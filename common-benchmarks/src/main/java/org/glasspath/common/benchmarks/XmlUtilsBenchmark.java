@@ -0,0 +1,101 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.glasspath.common.xml.XmlUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+
+// Steady state cost of binding a small document with a new mapper per document (as before
+// the shared mapper) and with the shared reader and writer, see XmlUtilsFirstCallBenchmark for the first call
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlUtilsBenchmark {
+
+	// Literal, so the first call benchmark doesn't warm up the mapper to create it
+	public static final String XML = "<Document id=\"1\"><name>Benchmark</name><value>1.5</value>" //$NON-NLS-1$
+			+ "<entries><entries><key>a</key><count>1</count></entries><entries><key>b</key><count>2</count></entries>" //$NON-NLS-1$
+			+ "<entries><key>c</key><count>3</count></entries></entries></Document>"; //$NON-NLS-1$
+
+	private Document document;
+
+	@Setup
+	public void setup() throws Exception {
+		document = XmlUtils.createXmlMapper().readValue(XML, Document.class);
+	}
+
+	@Benchmark
+	public Document newMapperRead() throws Exception {
+		return XmlUtils.createXmlMapper().readValue(XML, Document.class);
+	}
+
+	@Benchmark
+	public Document sharedReaderRead() throws Exception {
+		return XmlUtils.getReader(Document.class).readValue(XML);
+	}
+
+	@Benchmark
+	public String newMapperWrite() throws Exception {
+		return XmlUtils.createXmlMapper().writeValueAsString(document);
+	}
+
+	@Benchmark
+	public String sharedWriterWrite() throws Exception {
+		return XmlUtils.getWriter(Document.class).writeValueAsString(document);
+	}
+
+	public static class Document {
+
+		@JacksonXmlProperty(isAttribute = true)
+		private int id;
+		private String name;
+		private double value;
+		private List<Entry> entries;
+
+	}
+
+	public static class Entry {
+
+		private String key;
+		private int count;
+
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io.flow;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.glasspath.common.io.Frame;
+import org.glasspath.common.io.FrameSource;
+
+// Publishes the frames of a FrameSource to a single subscriber, frames are only read when
+// the subscriber requested them so reading pauses while there is no demand
+public class FramePublisher implements Flow.Publisher<Frame> {
+
+	private final FrameSource source;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+
+	public FramePublisher(FrameSource source) {
+		this.source = source;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Frame> subscriber) {
+
+		FrameSubscription subscription = new FrameSubscription(subscriber);
+
+		if (subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(subscription);
+		} else {
+			subscription.cancelled = true;
+			subscriber.onSubscribe(subscription);
+			subscriber.onError(new IllegalStateException("FramePublisher only supports a single subscriber")); //$NON-NLS-1$
+		}
+
+	}
+
+	private class FrameSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super Frame> subscriber;
+		private long demand = 0;
+		private boolean requesting = false;
+		private volatile boolean cancelled = false;
+
+		private FrameSubscription(Flow.Subscriber<? super Frame> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+
+			if (cancelled) {
+				return;
+			} else if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Requested " + n + " frames, must be positive")); //$NON-NLS-1$ //$NON-NLS-2$
+				return;
+			}
+
+			synchronized (this) {
+
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+
+				if (requesting) {
+					return;
+				}
+				requesting = true;
+
+			}
+
+			requestNext();
+
+		}
+
+		private void requestNext() {
+
+			// Frames that are already available complete immediately, those are delivered in
+			// this loop instead of recursing through the completion callbacks
+			while (true) {
+
+				CompletableFuture<Frame> next = source.nextFrame();
+
+				if (!next.isDone()) {
+					next.whenComplete((frame, t) -> {
+						if (deliver(frame, t)) {
+							requestNext();
+						}
+					});
+					return;
+				}
+
+				Frame frame = null;
+				Throwable error = null;
+				try {
+					frame = next.join();
+				} catch (CompletionException e) {
+					error = e.getCause();
+				}
+
+				if (!deliver(frame, error)) {
+					return;
+				}
+
+			}
+
+		}
+
+		private boolean deliver(Frame frame, Throwable t) {
+
+			if (cancelled) {
+				return false;
+			} else if (t != null) {
+				cancelled = true;
+				subscriber.onError(t);
+				return false;
+			} else if (frame == null) {
+				cancelled = true;
+				subscriber.onComplete();
+				return false;
+			}
+
+			subscriber.onNext(frame);
+
+			synchronized (this) {
+
+				if (demand != Long.MAX_VALUE) {
+					demand--;
+				}
+
+				requesting = demand > 0 && !cancelled;
+
+				return requesting;
+
+			}
+
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+	}
+
+}
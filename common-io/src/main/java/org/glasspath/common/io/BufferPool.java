@@ -0,0 +1,107 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pool of byte arrays with power of 2 lengths, shared by readers so buffers are reused instead of reallocated
+public class BufferPool {
+
+	public static final int DEFAULT_MAX_BUFFER_LENGTH = 16 * 1024 * 1024;
+	public static final int DEFAULT_MAX_BUFFERS_PER_LENGTH = 64;
+	public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+	private static final BufferPool SHARED = new BufferPool();
+
+	private final int maxBufferLength;
+	private final long maxPooledBytes;
+	private final ArrayBlockingQueue<byte[]>[] buffers;
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	public BufferPool() {
+		this(DEFAULT_MAX_BUFFER_LENGTH, DEFAULT_MAX_BUFFERS_PER_LENGTH, DEFAULT_MAX_POOLED_BYTES);
+	}
+
+	public BufferPool(int maxBufferLength, int maxBuffersPerLength) {
+		this(maxBufferLength, maxBuffersPerLength, Long.MAX_VALUE);
+	}
+
+	// The pooled bytes limit the memory retained by all size classes together, released buffers beyond it are dropped
+	@SuppressWarnings("unchecked")
+	public BufferPool(int maxBufferLength, int maxBuffersPerLength, long maxPooledBytes) {
+
+		this.maxBufferLength = maxBufferLength;
+		this.maxPooledBytes = maxPooledBytes;
+
+		buffers = new ArrayBlockingQueue[32 - Integer.numberOfLeadingZeros(Math.max(1, maxBufferLength - 1)) + 1];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = new ArrayBlockingQueue<>(maxBuffersPerLength);
+		}
+
+	}
+
+	public static BufferPool getShared() {
+		return SHARED;
+	}
+
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	// Returns an array of at least the requested length, the contents of the array are undefined
+	public byte[] acquire(int minLength) {
+
+		if (minLength > maxBufferLength) {
+			return new byte[minLength];
+		}
+
+		int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, minLength - 1));
+
+		byte[] bytes = buffers[shift].poll();
+		if (bytes == null) {
+			bytes = new byte[1 << shift];
+		} else {
+			pooledBytes.addAndGet(-bytes.length);
+		}
+
+		return bytes;
+
+	}
+
+	public void release(byte[] bytes) {
+
+		int length = bytes.length;
+
+		if (length > 0 && length <= maxBufferLength && Integer.bitCount(length) == 1) {
+
+			// Reserve the bytes first so concurrent releases can't exceed the limit together
+			if (pooledBytes.addAndGet(length) > maxPooledBytes || !buffers[Integer.numberOfTrailingZeros(length)].offer(bytes)) {
+				pooledBytes.addAndGet(-length);
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+import org.glasspath.common.io.MessageReader.Matcher;
+
+public abstract class ChannelMessageReader {
+
+	public static final int DEFAULT_BUFFER_SIZE = MessageReader.DEFAULT_BUFFER_SIZE;
+	public static final int DEFAULT_MAX_PENDING_LENGTH = MessageReader.DEFAULT_MAX_PENDING_LENGTH;
+
+	private final MessageFramer framer;
+	private final int bufferSize;
+	private final boolean direct;
+
+	protected ByteBuffer buffer;
+	private ByteBuffer view;
+	private int consumed = 0;
+	private int index = 0;
+	private WaitStrategy waitStrategy = new WaitStrategy.Sleep();
+	private int maxPendingLength = DEFAULT_MAX_PENDING_LENGTH;
+	private MessageReaderMetrics metrics = null;
+	private boolean exit = false;
+
+	public ChannelMessageReader(byte[] messageStartsWith, byte[] messageEndsWith) {
+		this(messageStartsWith, messageEndsWith, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	public ChannelMessageReader(byte[] messageStartsWith, byte[] messageEndsWith, int bufferSize, boolean direct) {
+		this(new MarkerMessageFramer(messageStartsWith, messageEndsWith), bufferSize, direct);
+	}
+
+	public ChannelMessageReader(Matcher startMatcher, Matcher endMatcher, int bufferSize, boolean direct) {
+		this(new MarkerMessageFramer(startMatcher, endMatcher), bufferSize, direct);
+	}
+
+	public ChannelMessageReader(MessageFramer framer) {
+		this(framer, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	public ChannelMessageReader(MessageFramer framer, int bufferSize, boolean direct) {
+		this.framer = framer;
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		setBuffer(allocate(bufferSize));
+	}
+
+	public MessageFramer getFramer() {
+		return framer;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public MessageReaderMetrics getMetrics() {
+		return metrics;
+	}
+
+	public void setMetrics(MessageReaderMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getMaxPendingLength() {
+		return maxPendingLength;
+	}
+
+	public void setMaxPendingLength(int maxPendingLength) {
+		this.maxPendingLength = maxPendingLength;
+	}
+
+	public void readAllBytes(ReadableByteChannel channel) throws IOException, InterruptedException {
+
+		while (!exit) {
+
+			int receivedLength = read(channel);
+
+			if (receivedLength > 0) {
+				waitStrategy.reset();
+			} else if (receivedLength == 0) {
+				waitStrategy.idle();
+			} else {
+				break; // End of stream reached
+			}
+
+		}
+
+	}
+
+	public int read(ReadableByteChannel channel) throws IOException {
+
+		ensureCapacity();
+
+		int receivedLength = channel.read(buffer);
+		if (receivedLength > 0) {
+
+			if (metrics != null) {
+				metrics.bytesRead(receivedLength);
+			}
+
+			processBytes();
+
+		} else if (receivedLength == 0 && metrics != null) {
+			metrics.emptyRead();
+		}
+
+		return receivedLength;
+
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return (direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity)).order(ByteOrder.nativeOrder());
+	}
+
+	private void setBuffer(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.view = buffer.asReadOnlyBuffer();
+	}
+
+	private void ensureCapacity() {
+
+		if (buffer.remaining() < bufferSize) {
+
+			if (consumed > 0) {
+
+				// Casts to Buffer are needed to stay binary compatible with 1.8 (covariant return types were added in 9)
+				((Buffer) buffer).limit(buffer.position());
+				((Buffer) buffer).position(consumed);
+				buffer.compact();
+
+				index -= consumed;
+				framer.shift(consumed);
+
+				consumed = 0;
+
+				if (metrics != null) {
+					metrics.bufferCompacted();
+				}
+
+			}
+
+			if (buffer.remaining() < bufferSize) {
+
+				int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + bufferSize);
+				if (newCapacity < 0 || newCapacity > maxPendingLength) {
+					newCapacity = (int) Math.min((long) maxPendingLength + bufferSize, Integer.MAX_VALUE - 8);
+				}
+
+				ByteBuffer newBuffer = allocate(newCapacity);
+				((Buffer) buffer).flip();
+				newBuffer.put(buffer);
+				setBuffer(newBuffer);
+
+				if (metrics != null) {
+					metrics.bufferGrown();
+				}
+
+			}
+
+		}
+
+	}
+
+	protected void processBytes() {
+
+		int length = buffer.position();
+		int previousConsumed = consumed;
+		int messageLengths = 0;
+
+		while (index < length) {
+
+			index = framer.next(buffer, index, length);
+
+			if (framer.hasMessage()) {
+
+				((Buffer) view).limit(framer.getMessageEnd() + 1);
+				((Buffer) view).position(framer.getMessageStart());
+
+				if (metrics == null) {
+					messageReceived(view.slice());
+				} else {
+
+					int messageLength = (framer.getMessageEnd() + 1) - framer.getMessageStart();
+					metrics.messageReceived(messageLength);
+					messageLengths += messageLength;
+
+					long start = System.nanoTime();
+					messageReceived(view.slice());
+					metrics.messageHandled(System.nanoTime() - start);
+
+				}
+
+				consumed = framer.getMessageEnd() + 1;
+
+			} else {
+				break;
+			}
+
+		}
+
+		consumed = Math.max(consumed, framer.getDiscardIndex(index));
+
+		boolean dropped = false;
+		if (length - consumed > maxPendingLength) {
+			consumed = length;
+			index = length;
+			framer.reset();
+			dropped = true;
+		}
+
+		if (metrics != null) {
+
+			int discarded = (consumed - previousConsumed) - messageLengths;
+			if (discarded > 0) {
+				metrics.bytesDiscarded(discarded);
+			}
+
+			if (dropped) {
+				metrics.messageDropped();
+			}
+
+		}
+
+	}
+
+	// The message is a read-only view on the internal buffer, it is only valid until this method returns
+	protected abstract void messageReceived(ByteBuffer message);
+
+	public void exit() {
+		exit = true;
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pull based access to the messages of a stream, the stream is only read while there are
+// pending requests so a slow consumer pushes back on the source instead of filling memory
+public class FrameSource {
+
+	private static ExecutorService readExecutor = null;
+
+	private final InputStream in;
+	private final MessageReader reader;
+	private final Executor executor;
+	private final Queue<Frame> frames = new ArrayDeque<>();
+	private final Queue<CompletableFuture<Frame>> requests = new ArrayDeque<>();
+	private boolean reading = false;
+	private boolean ended = false;
+	private Throwable error = null;
+
+	public FrameSource(InputStream in, MessageFramer framer) {
+		this(in, framer, MessageReader.DEFAULT_BUFFER_SIZE, getReadExecutor());
+	}
+
+	// Reads are blocking, so the executor should allow blocking tasks
+	public FrameSource(InputStream in, MessageFramer framer, int bufferSize, Executor executor) {
+
+		this.in = in;
+		this.executor = executor;
+
+		this.reader = new MessageReader(framer, bufferSize) {
+
+			@Override
+			protected void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+				frameReceived(new Frame(bytes, messageStart, messageEnd));
+			}
+		};
+
+	}
+
+	// Shared executor with daemon threads for the blocking reads, idle threads are stopped after a minute
+	public static synchronized ExecutorService getReadExecutor() {
+
+		if (readExecutor == null) {
+
+			AtomicInteger threadCount = new AtomicInteger();
+			readExecutor = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "FrameSource-" + threadCount.getAndIncrement()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		}
+
+		return readExecutor;
+
+	}
+
+	public MessageReader getReader() {
+		return reader;
+	}
+
+	// Completes with the next frame, or with null when the end of the stream was reached
+	public CompletableFuture<Frame> nextFrame() {
+
+		CompletableFuture<Frame> request = new CompletableFuture<>();
+
+		synchronized (this) {
+
+			Frame frame = frames.poll();
+			if (frame != null) {
+				request.complete(frame);
+			} else if (error != null) {
+				request.completeExceptionally(error);
+			} else if (ended) {
+				request.complete(null);
+			} else {
+
+				requests.add(request);
+
+				if (!reading) {
+					reading = true;
+					executor.execute(this::read);
+				}
+
+			}
+
+		}
+
+		return request;
+
+	}
+
+	private void read() {
+
+		try {
+
+			while (true) {
+
+				synchronized (this) {
+					if (requests.isEmpty()) {
+						reading = false;
+						return;
+					}
+				}
+
+				int receivedLength = reader.read(in);
+
+				if (receivedLength > 0) {
+					reader.getWaitStrategy().reset();
+				} else if (receivedLength == 0) {
+					reader.getWaitStrategy().idle();
+				} else {
+					ended(null);
+					return;
+				}
+
+			}
+
+		} catch (Throwable t) {
+			ended(t);
+		}
+
+	}
+
+	private void frameReceived(Frame frame) {
+
+		CompletableFuture<Frame> request;
+
+		synchronized (this) {
+			request = requests.poll();
+			if (request == null) {
+				frames.add(frame); // Frames beyond the demand of a read are kept for the next request
+				return;
+			}
+		}
+
+		request.complete(frame);
+
+	}
+
+	private void ended(Throwable t) {
+
+		Queue<CompletableFuture<Frame>> pending;
+
+		if (reader.getBufferPool() != null) {
+			reader.releaseBuffer();
+		}
+
+		synchronized (this) {
+			ended = true;
+			error = t;
+			reading = false;
+			pending = new ArrayDeque<>(requests);
+			requests.clear();
+		}
+
+		for (CompletableFuture<Frame> request : pending) {
+			if (t != null) {
+				request.completeExceptionally(t);
+			} else {
+				request.complete(null);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Inflater;
+
+// Inflaters hold native memory, reusing them avoids allocating (and waiting for the finalization of) one per stream
+public class InflaterPool {
+
+	public static final int DEFAULT_MAX_INFLATERS = 64;
+
+	private static final InflaterPool SHARED = new InflaterPool();
+
+	private final ArrayBlockingQueue<Inflater> inflaters;
+	private final ArrayBlockingQueue<Inflater> nowrapInflaters;
+
+	public InflaterPool() {
+		this(DEFAULT_MAX_INFLATERS);
+	}
+
+	public InflaterPool(int maxInflaters) {
+		inflaters = new ArrayBlockingQueue<>(maxInflaters);
+		nowrapInflaters = new ArrayBlockingQueue<>(maxInflaters);
+	}
+
+	public static InflaterPool getShared() {
+		return SHARED;
+	}
+
+	// When nowrap is true the inflater expects raw deflate data (as used by gzip), otherwise zlib data
+	public Inflater acquire(boolean nowrap) {
+
+		Inflater inflater = (nowrap ? nowrapInflaters : inflaters).poll();
+		if (inflater == null) {
+			inflater = new Inflater(nowrap);
+		}
+
+		return inflater;
+
+	}
+
+	public void release(Inflater inflater, boolean nowrap) {
+
+		inflater.reset();
+
+		if (!(nowrap ? nowrapInflaters : inflaters).offer(inflater)) {
+			inflater.end();
+		}
+
+	}
+
+}
@@ -0,0 +1,290 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Inflates gzip (including multi-member files), zlib or raw deflate data directly into the array passed to read(),
+// so a MessageReader inflates straight into its own buffer. The inflater and input buffer are taken from pools.
+public class InflatingInputStream extends InputStream {
+
+	public static final int DEFAULT_INPUT_BUFFER_SIZE = 65536;
+
+	public enum Format {
+		GZIP,
+		ZLIB,
+		DEFLATE
+	}
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final InputStream in;
+	private final Format format;
+	private final boolean nowrap;
+	private final InflaterPool inflaterPool;
+	private final BufferPool bufferPool;
+	private Inflater inflater;
+	private byte[] input;
+	private int inputPosition = 0;
+	private int inputLength = 0;
+	private final CRC32 crc = new CRC32();
+	private long memberLength = 0;
+	private boolean inMember = false;
+	private int memberCount = 0;
+	private boolean eof = false;
+	private final byte[] singleByte = new byte[1];
+
+	public InflatingInputStream(InputStream in, Format format) {
+		this(in, format, DEFAULT_INPUT_BUFFER_SIZE, InflaterPool.getShared(), BufferPool.getShared());
+	}
+
+	public InflatingInputStream(InputStream in, Format format, int inputBufferSize, InflaterPool inflaterPool, BufferPool bufferPool) {
+		this.in = in;
+		this.format = format;
+		this.nowrap = format != Format.ZLIB;
+		this.inflaterPool = inflaterPool;
+		this.bufferPool = bufferPool;
+		this.inflater = inflaterPool.acquire(nowrap);
+		this.input = bufferPool.acquire(inputBufferSize);
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == 1 ? singleByte[0] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (inflater == null) {
+			throw new IOException("Stream closed"); //$NON-NLS-1$
+		} else if (len == 0) {
+			return 0;
+		}
+
+		while (!eof) {
+
+			if (!inMember) {
+
+				if (format == Format.GZIP && !readHeader()) {
+					eof = true;
+					break;
+				}
+
+				inMember = true;
+				memberCount++;
+
+			}
+
+			int inflatedLength;
+			try {
+				inflatedLength = inflater.inflate(b, off, len);
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+
+			inputPosition = inputLength - inflater.getRemaining();
+
+			if (inflatedLength > 0) {
+
+				if (format == Format.GZIP) {
+					crc.update(b, off, inflatedLength);
+					memberLength += inflatedLength;
+				}
+
+				return inflatedLength;
+
+			} else if (inflater.finished()) {
+
+				if (format == Format.GZIP) {
+					readTrailer();
+					inflater.reset();
+					crc.reset();
+					memberLength = 0;
+					inMember = false;
+				} else {
+					eof = true;
+				}
+
+			} else if (inflater.needsDictionary()) {
+				throw new ZipException("Preset dictionaries are not supported"); //$NON-NLS-1$
+			} else if (inflater.needsInput()) {
+
+				if (!fill()) {
+					throw new EOFException("Unexpected end of compressed stream"); //$NON-NLS-1$
+				}
+
+				inflater.setInput(input, inputPosition, inputLength - inputPosition);
+
+			}
+
+		}
+
+		return -1;
+
+	}
+
+	public int getMemberCount() {
+		return memberCount;
+	}
+
+	private boolean fill() throws IOException {
+
+		inputPosition = 0;
+		inputLength = in.read(input, 0, input.length);
+
+		if (inputLength < 0) {
+			inputLength = 0;
+			return false;
+		}
+
+		return true;
+
+	}
+
+	private int readInputByte() throws IOException {
+
+		while (inputPosition >= inputLength) {
+			if (!fill()) {
+				return -1;
+			}
+		}
+
+		return input[inputPosition++] & 0xFF;
+
+	}
+
+	private int readUnsignedByte() throws IOException {
+
+		int b = readInputByte();
+		if (b < 0) {
+			throw new EOFException("Unexpected end of gzip stream"); //$NON-NLS-1$
+		}
+
+		return b;
+
+	}
+
+	private int readUnsignedShort() throws IOException {
+		return readUnsignedByte() | (readUnsignedByte() << 8);
+	}
+
+	private long readUnsignedInt() throws IOException {
+		return readUnsignedShort() | ((long) readUnsignedShort() << 16);
+	}
+
+	private void skipBytes(int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			readUnsignedByte();
+		}
+	}
+
+	private boolean readHeader() throws IOException {
+
+		int first = readInputByte();
+		if (first < 0) {
+			if (memberCount == 0) {
+				throw new EOFException("Empty gzip stream"); //$NON-NLS-1$
+			}
+			return false;
+		}
+
+		int magic = first | (readInputByte() << 8);
+		if (magic != GZIP_MAGIC) {
+			if (memberCount == 0) {
+				throw new ZipException("Not in gzip format"); //$NON-NLS-1$
+			}
+			return false; // Like GZIPInputStream, trailing garbage after the last member is ignored
+		}
+
+		if (readUnsignedByte() != 8) {
+			throw new ZipException("Unsupported compression method"); //$NON-NLS-1$
+		}
+
+		int flags = readUnsignedByte();
+		skipBytes(6); // Modification time, extra flags and operating system
+
+		if ((flags & FEXTRA) != 0) {
+			skipBytes(readUnsignedShort());
+		}
+		if ((flags & FNAME) != 0) {
+			while (readUnsignedByte() != 0) {
+				// Skip file name
+			}
+		}
+		if ((flags & FCOMMENT) != 0) {
+			while (readUnsignedByte() != 0) {
+				// Skip comment
+			}
+		}
+		if ((flags & FHCRC) != 0) {
+			skipBytes(2);
+		}
+
+		inflater.setInput(input, inputPosition, inputLength - inputPosition);
+
+		return true;
+
+	}
+
+	private void readTrailer() throws IOException {
+
+		long expectedCrc = readUnsignedInt();
+		long expectedLength = readUnsignedInt();
+
+		if (expectedCrc != crc.getValue()) {
+			throw new ZipException("Corrupt gzip trailer (crc)"); //$NON-NLS-1$
+		} else if (expectedLength != (memberLength & 0xFFFFFFFFL)) {
+			throw new ZipException("Corrupt gzip trailer (length)"); //$NON-NLS-1$
+		}
+
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if (inflater != null) {
+
+			inflaterPool.release(inflater, nowrap);
+			inflater = null;
+
+			bufferPool.release(input);
+			input = null;
+
+			in.close();
+
+		}
+
+	}
+
+}
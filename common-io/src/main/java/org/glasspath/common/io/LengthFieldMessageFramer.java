@@ -0,0 +1,102 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class LengthFieldMessageFramer extends MessageFramer {
+
+	public static final int DEFAULT_MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+	private final int lengthFieldOffset;
+	private final int lengthFieldLength;
+	private final ByteOrder byteOrder;
+	private final int lengthAdjustment;
+	private final int maxMessageLength;
+
+	public LengthFieldMessageFramer(int lengthFieldLength) {
+		this(0, lengthFieldLength, ByteOrder.BIG_ENDIAN, 0, DEFAULT_MAX_MESSAGE_LENGTH);
+	}
+
+	// The length of a message (header included) is lengthFieldOffset + lengthFieldLength + length + lengthAdjustment,
+	// a negative lengthAdjustment can be used for protocols where the length field also counts the header
+	public LengthFieldMessageFramer(int lengthFieldOffset, int lengthFieldLength, ByteOrder byteOrder, int lengthAdjustment, int maxMessageLength) {
+
+		if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 4) {
+			throw new IllegalArgumentException("Length field length must be 1, 2 or 4, not " + lengthFieldLength); //$NON-NLS-1$
+		}
+
+		this.lengthFieldOffset = lengthFieldOffset;
+		this.lengthFieldLength = lengthFieldLength;
+		this.byteOrder = byteOrder;
+		this.lengthAdjustment = lengthAdjustment;
+		this.maxMessageLength = maxMessageLength;
+
+	}
+
+	public int getMaxMessageLength() {
+		return maxMessageLength;
+	}
+
+	@Override
+	public int next(ByteBuffer buffer, int from, int to) {
+
+		messageStart = -1;
+		messageEnd = -1;
+
+		int headerLength = lengthFieldOffset + lengthFieldLength;
+		if (to - from < headerLength) {
+			return from;
+		}
+
+		long length = 0;
+		int lengthIndex = from + lengthFieldOffset;
+
+		if (byteOrder == ByteOrder.BIG_ENDIAN) {
+			for (int i = 0; i < lengthFieldLength; i++) {
+				length = (length << 8) | (buffer.get(lengthIndex + i) & 0xFF);
+			}
+		} else {
+			for (int i = lengthFieldLength - 1; i >= 0; i--) {
+				length = (length << 8) | (buffer.get(lengthIndex + i) & 0xFF);
+			}
+		}
+
+		long messageLength = headerLength + length + lengthAdjustment;
+		if (messageLength < headerLength || messageLength > maxMessageLength) {
+			throw new IllegalStateException("Invalid message length: " + messageLength); //$NON-NLS-1$
+		}
+
+		if (to - from < messageLength) {
+			return from;
+		}
+
+		messageStart = from;
+		messageEnd = from + (int) messageLength - 1;
+
+		return messageEnd + 1;
+
+	}
+
+}
@@ -0,0 +1,361 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public abstract class MappedFileMessageReader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+	public static final int DEFAULT_MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+	private final byte[] messageStartsWith;
+	private final byte[] messageEndsWith;
+	private final int chunkSize;
+	private final int maxMessageLength;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+	private boolean ordered = true;
+
+	public MappedFileMessageReader(byte[] messageStartsWith, byte[] messageEndsWith) {
+		this(messageStartsWith, messageEndsWith, DEFAULT_CHUNK_SIZE, DEFAULT_MAX_MESSAGE_LENGTH);
+	}
+
+	public MappedFileMessageReader(byte[] messageStartsWith, byte[] messageEndsWith, int chunkSize, int maxMessageLength) {
+
+		if ((long) chunkSize + maxMessageLength > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Chunk size plus max message length can't exceed " + Integer.MAX_VALUE); //$NON-NLS-1$
+		}
+
+		this.messageStartsWith = messageStartsWith;
+		this.messageEndsWith = messageEndsWith;
+		this.chunkSize = chunkSize;
+		this.maxMessageLength = maxMessageLength;
+
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	// When not ordered messages are (also) delivered from the pool threads, messageReceived then has to be thread safe
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	public void readFile(File file) throws IOException, InterruptedException {
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+			long size = channel.size();
+
+			// Limits the number of mapped chunks that are waiting to be delivered
+			int maxPending = Math.max(2, pool.getParallelism() * 2);
+			Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+			Delivery delivery = new Delivery(maxPending);
+
+			for (long position = 0; position < size; position += chunkSize) {
+
+				if (pending.size() >= maxPending) {
+					delivery.deliver(get(pending.poll()));
+				}
+
+				pending.add(pool.submit(new ChunkTask(channel, position, (int) Math.min(chunkSize, size - position), size)));
+
+			}
+
+			while (!pending.isEmpty()) {
+				delivery.deliver(get(pending.poll()));
+			}
+
+			delivery.finish();
+
+		}
+
+	}
+
+	private static <V> V get(ForkJoinTask<V> task) throws IOException, InterruptedException {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	// The message is a read-only view on the mapped file
+	protected abstract void messageReceived(ByteBuffer message);
+
+	// Chunks are framed in parallel as if no message was pending at their start, which isn't always the case
+	// (a message of the previous chunk can end inside the chunk, or a start marker overlapping the end of the
+	// previous chunk can change the framing). The calling thread therefore continues the framing of the previous
+	// chunk into the chunk until it delivers a message that ends where a message of the chunk ends, from there
+	// on both framings are the same and the remaining messages of the chunk are delivered as they were framed.
+	private class Delivery {
+
+		private final int maxPending;
+		private final MessageFramer framer = new MarkerMessageFramer(messageStartsWith, messageEndsWith);
+		private final Deque<Chunk> chunks = new ArrayDeque<>();
+		private final Deque<ForkJoinTask<Void>> deliveries = new ArrayDeque<>();
+		private boolean fresh = true;
+		private int index = 0;
+
+		private Delivery(int maxPending) {
+			this.maxPending = maxPending;
+		}
+
+		private void deliver(Chunk chunk) throws IOException, InterruptedException {
+
+			Chunk previous = chunks.peekLast();
+			if (previous != null) {
+				int offset = (int) (chunk.position - previous.position);
+				framer.shift(offset);
+				index -= offset;
+			}
+
+			// Keep the chunks which can contain the start of a message that ends in this chunk
+			while (!chunks.isEmpty() && chunks.peekFirst().position + chunks.peekFirst().mappedLength <= chunk.position) {
+				chunks.poll();
+			}
+			chunks.add(chunk);
+
+			int first = 0;
+			if (!fresh || index > 0) {
+
+				first = -1;
+
+				while (index < chunk.length) {
+
+					index = framer.next(chunk.buffer, index, chunk.length);
+					fresh = framer.hasMessage();
+
+					if (framer.hasMessage()) {
+
+						deliver(chunk.position + framer.getMessageStart(), chunk.position + framer.getMessageEnd());
+
+						int i = Arrays.binarySearch(chunk.messageEnds, 0, chunk.count, framer.getMessageEnd());
+						if (i >= 0) {
+							first = i + 1;
+							break;
+						}
+
+					} else {
+						break;
+					}
+
+				}
+
+				if (first < 0) {
+					return;
+				}
+
+			}
+
+			if (first < chunk.count) {
+
+				if (ordered) {
+					deliver(chunk, first);
+				} else {
+
+					if (deliveries.size() >= maxPending) {
+						get(deliveries.poll());
+					}
+
+					final int from = first;
+					deliveries.add(pool.submit(() -> {
+						deliver(chunk, from);
+						return null;
+					}));
+
+				}
+
+				index = chunk.messageEnds[chunk.count - 1] + 1;
+
+			}
+
+			// The framing of the chunk found no more messages that start in the chunk, the framer
+			// only has to see the remaining bytes to continue in the next chunk
+			framer.reset();
+			fresh = true;
+			while (index < chunk.length) {
+
+				index = framer.next(chunk.buffer, index, chunk.length);
+				fresh = false;
+
+				if (framer.hasMessage()) {
+					deliver(chunk.position + framer.getMessageStart(), chunk.position + framer.getMessageEnd());
+				} else {
+					break;
+				}
+
+			}
+
+		}
+
+		private void deliver(Chunk chunk, int from) {
+			for (int i = from; i < chunk.count; i++) {
+				chunk.deliver(chunk.messageStarts[i], chunk.messageEnds[i]);
+			}
+		}
+
+		// Delivers a message found while continuing the framing from the chunk which contains
+		// its start, messages longer than the max message length can't be delivered
+		private void deliver(long messageStart, long messageEnd) {
+
+			for (Iterator<Chunk> iterator = chunks.descendingIterator(); iterator.hasNext();) {
+
+				Chunk chunk = iterator.next();
+				if (chunk.position <= messageStart && messageEnd < chunk.position + chunk.mappedLength) {
+					chunk.deliver((int) (messageStart - chunk.position), (int) (messageEnd - chunk.position));
+					return;
+				}
+
+			}
+
+		}
+
+		private void finish() throws IOException, InterruptedException {
+			while (!deliveries.isEmpty()) {
+				get(deliveries.poll());
+			}
+		}
+
+	}
+
+	private class Chunk {
+
+		private final long position;
+		private final int length;
+		private final int mappedLength;
+		private final ByteBuffer buffer;
+		private final ByteBuffer view;
+		private int[] messageStarts = new int[64];
+		private int[] messageEnds = new int[64];
+		private int count = 0;
+
+		private Chunk(long position, int length, ByteBuffer buffer) {
+			this.position = position;
+			this.length = length;
+			this.mappedLength = buffer.capacity();
+			this.buffer = buffer;
+			this.view = buffer.asReadOnlyBuffer();
+		}
+
+		private void add(int messageStart, int messageEnd) {
+
+			if (count == messageStarts.length) {
+				messageStarts = Arrays.copyOf(messageStarts, count * 2);
+				messageEnds = Arrays.copyOf(messageEnds, count * 2);
+			}
+
+			messageStarts[count] = messageStart;
+			messageEnds[count] = messageEnd;
+			count++;
+
+		}
+
+		// Messages of a chunk can be delivered from the calling thread and a pool thread at the same time
+		private void deliver(int messageStart, int messageEnd) {
+			ByteBuffer message = view.duplicate();
+			((Buffer) message).limit(messageEnd + 1);
+			((Buffer) message).position(messageStart);
+			messageReceived(message.slice());
+		}
+
+	}
+
+	private class ChunkTask implements Callable<Chunk> {
+
+		private final FileChannel channel;
+		private final long position;
+		private final int length;
+		private final long size;
+
+		private ChunkTask(FileChannel channel, long position, int length, long size) {
+			this.channel = channel;
+			this.position = position;
+			this.length = length;
+			this.size = size;
+		}
+
+		@Override
+		public Chunk call() throws IOException {
+
+			// A chunk owns the messages that start inside it, messages that cross the end of
+			// the chunk are completed by mapping up to one max message length of the next chunk
+			int mappedLength = (int) Math.min((long) length + maxMessageLength, size - position);
+
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, mappedLength).order(ByteOrder.nativeOrder());
+			MessageFramer framer = new MarkerMessageFramer(messageStartsWith, messageEndsWith);
+			Chunk chunk = new Chunk(position, length, buffer);
+
+			int index = 0;
+			while (index < mappedLength) {
+
+				index = framer.next(buffer, index, index < length ? length : mappedLength);
+
+				if (framer.hasMessage()) {
+
+					if (framer.getMessageStart() >= length) {
+						break;
+					} else {
+						chunk.add(framer.getMessageStart(), framer.getMessageEnd());
+					}
+
+				} else if (index >= mappedLength) {
+					break;
+				}
+
+			}
+
+			return chunk;
+
+		}
+
+	}
+
+}
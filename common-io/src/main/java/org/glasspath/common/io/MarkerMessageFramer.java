@@ -0,0 +1,131 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.nio.ByteBuffer;
+
+import org.glasspath.common.io.MessageReader.ByteArrayMatcher;
+import org.glasspath.common.io.MessageReader.Matcher;
+
+public class MarkerMessageFramer extends MessageFramer {
+
+	private final Matcher startMatcher;
+	private final Matcher endMatcher;
+	private boolean pending = false;
+	private int pendingStart = 0;
+
+	public MarkerMessageFramer(byte[] messageStartsWith, byte[] messageEndsWith) {
+		this(new ByteArrayMatcher(messageStartsWith), new ByteArrayMatcher(messageEndsWith));
+	}
+
+	public MarkerMessageFramer(Matcher startMatcher, Matcher endMatcher) {
+		this.startMatcher = startMatcher;
+		this.endMatcher = endMatcher;
+	}
+
+	@Override
+	public int next(ByteBuffer buffer, int from, int to) {
+
+		messageStart = -1;
+		messageEnd = -1;
+
+		int index = from;
+		while (index < to) {
+
+			if (!pending) {
+
+				int startIndex = startMatcher.indexOf(buffer, index, to);
+				if (startIndex < 0) {
+					index = to;
+				} else {
+
+					// The end matcher didn't see the skipped bytes, the end of a message is only searched after it started
+					pending = true;
+					pendingStart = (startIndex + 1) - startMatcher.getLength();
+					endMatcher.reset();
+					index = startIndex + 1;
+
+				}
+
+			} else {
+
+				int endIndex = endMatcher.indexOf(buffer, index, to);
+				int limit = endIndex >= 0 ? endIndex + 1 : to;
+
+				// Another start marker before the end marker restarts the message
+				int startIndex;
+				while ((startIndex = startMatcher.indexOf(buffer, index, limit)) >= 0) {
+					pendingStart = (startIndex + 1) - startMatcher.getLength();
+					index = startIndex + 1;
+				}
+
+				index = limit;
+
+				if (endIndex >= 0) {
+
+					messageStart = pendingStart;
+					messageEnd = endIndex;
+
+					// Messages don't overlap, so a start marker can't begin inside the message that just ended
+					pending = false;
+					startMatcher.reset();
+
+					return index;
+
+				}
+
+			}
+
+		}
+
+		return index;
+
+	}
+
+	@Override
+	public int getDiscardIndex(int index) {
+		if (pending) {
+			return pendingStart;
+		} else {
+			// The start matcher might have matched the first bytes of a start marker
+			return Math.max(0, index - (startMatcher.getMaxLength() - 1));
+		}
+	}
+
+	@Override
+	// The pending start can become negative, the message then started before the (new) start of the buffer
+	public void shift(int offset) {
+		if (pending) {
+			pendingStart -= offset;
+		}
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		pending = false;
+		startMatcher.reset();
+		endMatcher.reset();
+	}
+
+}
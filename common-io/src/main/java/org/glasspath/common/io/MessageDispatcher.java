@@ -0,0 +1,241 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.glasspath.common.Common;
+
+// Hands messages from reader threads to worker threads through a bounded lock-free ring of
+// preallocated slots (based on Dmitry Vyukov's bounded MPMC queue), messages are copied into
+// the slots so the reader can reuse its buffer as soon as messageReceived returns
+public class MessageDispatcher implements MessageHandler {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final int DEFAULT_SLOT_SIZE = 2048;
+	public static final int DEFAULT_BATCH_SIZE = 64;
+
+	public enum Backpressure {
+		BLOCK,
+		DROP_OLDEST,
+		DROP_NEWEST
+	}
+
+	private final MessageHandler handler;
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final byte[][] slots;
+	private final int[] lengths;
+	private final AtomicLong enqueuePosition = new AtomicLong();
+	private final AtomicLong dequeuePosition = new AtomicLong();
+	private final Backpressure backpressure;
+	private final int batchSize;
+	private final Thread[] workers;
+	private final LongAdder dispatchedCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAdder handledCount = new LongAdder();
+	private volatile boolean exit = false;
+
+	public MessageDispatcher(MessageHandler handler, int workerCount) {
+		this(handler, workerCount, DEFAULT_CAPACITY, DEFAULT_SLOT_SIZE, DEFAULT_BATCH_SIZE, Backpressure.BLOCK);
+	}
+
+	public MessageDispatcher(MessageHandler handler, int workerCount, int capacity, int slotSize, int batchSize, Backpressure backpressure) {
+
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of 2, not " + capacity); //$NON-NLS-1$
+		}
+
+		this.handler = handler;
+		this.mask = capacity - 1;
+		this.sequences = new AtomicLongArray(capacity);
+		this.slots = new byte[capacity][];
+		this.lengths = new int[capacity];
+		this.backpressure = backpressure;
+		this.batchSize = Math.max(1, batchSize);
+
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+			slots[i] = new byte[slotSize];
+		}
+
+		workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Thread(this::work, "MessageDispatcher-" + i); //$NON-NLS-1$
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+
+	}
+
+	@Override
+	public void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+
+		int length = (messageEnd + 1) - messageStart;
+		int spins = 0;
+
+		while (true) {
+
+			long position = enqueuePosition.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+
+			if (difference == 0) {
+
+				if (enqueuePosition.compareAndSet(position, position + 1)) {
+
+					// The slot is owned by this thread until the sequence is published
+					if (slots[index].length < length) {
+						slots[index] = new byte[length];
+					}
+					System.arraycopy(bytes, messageStart, slots[index], 0, length);
+					lengths[index] = length;
+
+					sequences.lazySet(index, position + 1);
+					dispatchedCount.increment();
+
+					return;
+
+				}
+
+			} else if (difference < 0) {
+
+				// The ring is full
+				if (backpressure == Backpressure.DROP_NEWEST) {
+					droppedCount.increment();
+					return;
+				} else if (backpressure == Backpressure.DROP_OLDEST) {
+					if (drop()) {
+						droppedCount.increment();
+					} else {
+						Thread.yield(); // Everything is claimed by workers
+					}
+				} else if (exit) {
+					droppedCount.increment();
+					return;
+				} else if (spins++ < 100) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(10000);
+				}
+
+			}
+
+		}
+
+	}
+
+	private boolean drop() {
+
+		while (true) {
+
+			long position = dequeuePosition.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+
+			if (difference == 0) {
+				if (dequeuePosition.compareAndSet(position, position + 1)) {
+					sequences.lazySet(index, position + mask + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				return false;
+			}
+
+		}
+
+	}
+
+	private void work() {
+
+		WaitStrategy waitStrategy = new WaitStrategy.ParkBackoff();
+
+		while (!exit) {
+
+			long position = dequeuePosition.get();
+
+			// Claims the longest run of published slots, up to the batch size
+			int count = 0;
+			while (count < batchSize && sequences.get((int) (position + count) & mask) == position + count + 1) {
+				count++;
+			}
+
+			if (count == 0) {
+				try {
+					waitStrategy.idle();
+				} catch (InterruptedException e) {
+					break;
+				}
+			} else if (dequeuePosition.compareAndSet(position, position + count)) {
+
+				waitStrategy.reset();
+
+				for (int i = 0; i < count; i++) {
+
+					int index = (int) (position + i) & mask;
+
+					try {
+						handler.messageReceived(slots[index], 0, lengths[index] - 1);
+					} catch (Exception e) {
+						Common.LOGGER.error("Exception while handling message: ", e); //$NON-NLS-1$
+					}
+
+					sequences.lazySet(index, position + i + mask + 1);
+					handledCount.increment();
+
+				}
+
+			}
+
+		}
+
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public int getOccupancy() {
+		return (int) Math.max(0, enqueuePosition.get() - dequeuePosition.get());
+	}
+
+	public long getDispatchedCount() {
+		return dispatchedCount.sum();
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	public long getHandledCount() {
+		return handledCount.sum();
+	}
+
+	public void exit() {
+		exit = true;
+	}
+
+}
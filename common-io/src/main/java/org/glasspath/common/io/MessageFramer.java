@@ -0,0 +1,69 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.nio.ByteBuffer;
+
+public abstract class MessageFramer {
+
+	protected int messageStart = -1;
+	protected int messageEnd = -1;
+
+	public MessageFramer() {
+
+	}
+
+	// Scans the buffer from index 'from' up to (but not including) index 'to' and returns the index from
+	// which scanning should continue, if a complete message was found it's available through getMessageStart()
+	// and getMessageEnd() and the returned index is the first index after the message
+	public abstract int next(ByteBuffer buffer, int from, int to);
+
+	public boolean hasMessage() {
+		return messageEnd >= 0;
+	}
+
+	public int getMessageStart() {
+		return messageStart;
+	}
+
+	public int getMessageEnd() {
+		return messageEnd;
+	}
+
+	// Returns the index before which bytes can be discarded because they can't become part of a message,
+	// 'index' is the index that was returned by the last call to next()
+	public int getDiscardIndex(int index) {
+		return index;
+	}
+
+	// Called by the reader after the contents of the buffer were moved 'offset' bytes towards the start
+	public void shift(int offset) {
+
+	}
+
+	public void reset() {
+		messageStart = -1;
+		messageEnd = -1;
+	}
+
+}
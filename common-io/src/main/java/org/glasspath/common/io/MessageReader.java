@@ -22,19 +22,31 @@
  */
 package org.glasspath.common.io;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public abstract class MessageReader {
 
 	public static final int DEFAULT_BUFFER_SIZE = 16384;
+	public static final int DEFAULT_MAX_PENDING_LENGTH = Integer.MAX_VALUE;
 
-	private final ByteArrayMatcher startMatcher;
-	private final ByteArrayMatcher endMatcher;
+	private final MessageFramer framer;
 	private final int bufferSize;
 
-	protected byte[] bytes = new byte[0];
+	protected byte[] bytes;
+	protected int length = 0;
+	private ByteBuffer buffer;
+	private int consumed = 0;
 	private int index = 0;
-	private int messageStart = -1;
+	private int[] messageStarts = new int[16];
+	private int[] messageEnds = new int[16];
+	private WaitStrategy waitStrategy = new WaitStrategy.Sleep();
+	private BufferPool bufferPool = null;
+	private int maxPendingLength = DEFAULT_MAX_PENDING_LENGTH;
+	private MessageReaderMetrics metrics = null;
 	private boolean exit = false;
 
 	public MessageReader(byte[] messageStartsWith, byte[] messageEndsWith) {
@@ -42,68 +54,265 @@ public abstract class MessageReader {
 	}
 
 	public MessageReader(byte[] messageStartsWith, byte[] messageEndsWith, int bufferSize) {
-		this.startMatcher = new ByteArrayMatcher(messageStartsWith);
-		this.endMatcher = new ByteArrayMatcher(messageEndsWith);
+		this(new MarkerMessageFramer(messageStartsWith, messageEndsWith), bufferSize);
+	}
+
+	public MessageReader(Matcher startMatcher, Matcher endMatcher) {
+		this(startMatcher, endMatcher, DEFAULT_BUFFER_SIZE);
+	}
+
+	public MessageReader(Matcher startMatcher, Matcher endMatcher, int bufferSize) {
+		this(new MarkerMessageFramer(startMatcher, endMatcher), bufferSize);
+	}
+
+	public MessageReader(MessageFramer framer) {
+		this(framer, DEFAULT_BUFFER_SIZE);
+	}
+
+	public MessageReader(MessageFramer framer, int bufferSize) {
+		this.framer = framer;
 		this.bufferSize = bufferSize;
+		setBytes(new byte[0]); // Allocated on the first read, so a buffer pool can still be set
+	}
+
+	public MessageFramer getFramer() {
+		return framer;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public void setBufferPool(BufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	public MessageReaderMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Metrics are off by default, a metrics instance can be shared by readers to aggregate them
+	public void setMetrics(MessageReaderMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getMaxPendingLength() {
+		return maxPendingLength;
+	}
+
+	// Bytes of a message that grows beyond this length are discarded, this limits the memory used when an end marker never arrives
+	public void setMaxPendingLength(int maxPendingLength) {
+		this.maxPendingLength = maxPendingLength;
 	}
 
 	public void readAllBytes(InputStream in) throws Exception { // TODO: Which exceptions?
 
-		while (!exit) {
+		try {
 
-			byte[] received = new byte[bufferSize];
-			int receivedLength = in.read(received);
+			while (!exit) {
 
-			if (receivedLength > 0) {
+				int receivedLength = read(in);
 
-				byte[] newBytes = new byte[bytes.length + receivedLength];
-				System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
-				System.arraycopy(received, 0, newBytes, bytes.length, receivedLength);
-				bytes = newBytes;
+				if (receivedLength > 0) {
+					waitStrategy.reset();
+				} else if (receivedLength == 0) {
+					waitStrategy.idle();
+				} else {
+					break; // End of stream reached
+				}
 
-				processBytes();
+			}
 
-			} else if (receivedLength == 0) {
-				Thread.sleep(1);
-			} else {
-				break; // End of stream reached
+		} finally {
+			if (bufferPool != null) {
+				releaseBuffer();
+			}
+		}
+
+	}
+
+	public int read(InputStream in) throws IOException {
+
+		ensureCapacity();
+
+		int receivedLength = in.read(bytes, length, bytes.length - length);
+		if (receivedLength > 0) {
+
+			length += receivedLength;
+
+			if (metrics != null) {
+				metrics.bytesRead(receivedLength);
 			}
 
+			processBytes();
+
+		} else if (receivedLength == 0 && metrics != null) {
+			metrics.emptyRead();
 		}
 
+		return receivedLength;
+
 	}
 
-	protected void processBytes() {
+	// Returns the buffer to the pool (if any), bytes of an incomplete message are discarded
+	public void releaseBuffer() {
+
+		if (bufferPool != null) {
+			bufferPool.release(bytes);
+		}
+
+		setBytes(new byte[0]);
+		length = 0;
+		consumed = 0;
+		index = 0;
+		framer.reset();
+
+	}
+
+	private void setBytes(byte[] bytes) {
+		this.bytes = bytes;
+		this.buffer = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	private void ensureCapacity() {
+
+		if (bytes.length - length < bufferSize) {
+
+			// Bytes of messages that were already delivered are only dropped when we run out of space,
+			// this way the unconsumed bytes are moved at most once instead of after every message
+			if (consumed > 0) {
+
+				length -= consumed;
+				System.arraycopy(bytes, consumed, bytes, 0, length);
+
+				index -= consumed;
+				framer.shift(consumed);
+
+				consumed = 0;
+
+				if (metrics != null) {
+					metrics.bufferCompacted();
+				}
 
-		while (index < bytes.length) {
+			}
+
+			if (bytes.length - length < bufferSize) {
+
+				int newLength = Math.max(bytes.length * 2, length + bufferSize);
+				if (newLength < 0 || newLength > maxPendingLength) {
+					newLength = (int) Math.min((long) maxPendingLength + bufferSize, Integer.MAX_VALUE - 8);
+				}
+
+				byte[] newBytes = bufferPool != null ? bufferPool.acquire(newLength) : new byte[newLength];
+				System.arraycopy(bytes, 0, newBytes, 0, length);
+
+				if (bufferPool != null) {
+					bufferPool.release(bytes);
+				}
+
+				setBytes(newBytes);
+
+				if (metrics != null) {
+					metrics.bufferGrown();
+				}
 
-			if (startMatcher.match(bytes[index])) {
-				messageStart = (index + 1) - startMatcher.bytes.length;
 			}
 
-			if (endMatcher.match(bytes[index]) && messageStart >= 0) {
+		}
 
-				messageReceived(bytes, messageStart, index);
+	}
 
-				messageStart = -1;
+	protected void processBytes() {
 
-				int newLength = bytes.length - (index + 1);
-				if (newLength > 0) {
+		int previousConsumed = consumed;
+		int count = 0;
 
-					byte[] newBytes = new byte[newLength];
-					System.arraycopy(bytes, index + 1, newBytes, 0, newLength);
-					bytes = newBytes;
+		while (index < length) {
 
-				} else {
-					bytes = new byte[0];
+			index = framer.next(buffer, index, length);
+
+			if (framer.hasMessage()) {
+
+				if (count == messageStarts.length) {
+					messageStarts = Arrays.copyOf(messageStarts, count * 2);
+					messageEnds = Arrays.copyOf(messageEnds, count * 2);
 				}
 
-				index = -1;
+				messageStarts[count] = framer.getMessageStart();
+				messageEnds[count] = framer.getMessageEnd();
+				count++;
 
+			} else {
+				break;
 			}
 
-			index++;
+		}
+
+		if (count > 0) {
+			messagesReceived(bytes, messageStarts, messageEnds, count);
+			consumed = messageEnds[count - 1] + 1;
+		}
+
+		// Bytes that can't become part of a message are dropped right away (on the next compaction),
+		// instead of being kept until the next message completes
+		consumed = Math.max(consumed, framer.getDiscardIndex(index));
+
+		boolean dropped = false;
+		if (length - consumed > maxPendingLength) {
+			consumed = length;
+			index = length;
+			framer.reset();
+			dropped = true;
+		}
 
+		if (metrics != null) {
+			updateMetrics(previousConsumed, count, dropped);
+		}
+
+	}
+
+	private void updateMetrics(int previousConsumed, int count, boolean dropped) {
+
+		// Everything that was consumed but isn't part of a message was discarded
+		int discarded = consumed - previousConsumed;
+
+		for (int i = 0; i < count; i++) {
+			int messageLength = (messageEnds[i] + 1) - messageStarts[i];
+			metrics.messageReceived(messageLength);
+			discarded -= messageLength;
+		}
+
+		if (discarded > 0) {
+			metrics.bytesDiscarded(discarded);
+		}
+
+		if (dropped) {
+			metrics.messageDropped();
+		}
+
+	}
+
+	// Called once for all messages that were completed by a read, the arrays are reused and only valid until this method returns
+	protected void messagesReceived(byte[] bytes, int[] messageStarts, int[] messageEnds, int count) {
+
+		if (metrics == null) {
+			for (int i = 0; i < count; i++) {
+				messageReceived(bytes, messageStarts[i], messageEnds[i]);
+			}
+		} else {
+			for (int i = 0; i < count; i++) {
+				long start = System.nanoTime();
+				messageReceived(bytes, messageStarts[i], messageEnds[i]);
+				metrics.messageHandled(System.nanoTime() - start);
+			}
 		}
 
 	}
@@ -114,31 +323,326 @@ public abstract class MessageReader {
 		exit = true;
 	}
 
-	public static class ByteArrayMatcher {
+	private static final long ONES = 0x0101010101010101L;
+	private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+	static int indexOf(ByteBuffer buffer, byte b, int from, int to) {
+
+		// Compares 8 bytes at a time, a byte of x is zero when it equals b
+		long pattern = (b & 0xFFL) * ONES;
+		boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+
+			long x = buffer.getLong(i) ^ pattern;
+			long zeros = ~(((x & LOWS) + LOWS) | x | LOWS);
+
+			if (zeros != 0) {
+				return i + ((littleEndian ? Long.numberOfTrailingZeros(zeros) : Long.numberOfLeadingZeros(zeros)) >>> 3);
+			}
+
+		}
+
+		for (; i < to; i++) {
+			if (buffer.get(i) == b) {
+				return i;
+			}
+		}
+
+		return -1;
+
+	}
+
+	public static abstract class Matcher {
+
+		private ByteBuffer wrapped = null;
+
+		public abstract boolean match(byte b);
+
+		public abstract int indexOf(ByteBuffer buffer, int from, int to);
+
+		public int indexOf(byte[] bytes, int from, int to) {
+
+			if (wrapped == null || wrapped.array() != bytes) {
+				wrapped = ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder());
+			}
+
+			return indexOf(wrapped, from, to);
+
+		}
+
+		// Length of the last matched pattern
+		public abstract int getLength();
+
+		public abstract int getMaxLength();
+
+		public abstract void reset();
+
+	}
+
+	public static class ByteArrayMatcher extends Matcher {
 
 		private final byte[] bytes;
+		private final int[] prefix;
 		private int i = 0;
 
 		public ByteArrayMatcher(byte[] bytes) {
+
+			if (bytes.length == 0) {
+				throw new IllegalArgumentException("Pattern is empty"); //$NON-NLS-1$
+			}
+
 			this.bytes = bytes;
+
+			// Knuth-Morris-Pratt prefix function, on a mismatch we fall back to the longest prefix that is also a suffix
+			prefix = new int[bytes.length];
+			for (int j = 1, k = 0; j < bytes.length; j++) {
+				while (k > 0 && bytes[j] != bytes[k]) {
+					k = prefix[k - 1];
+				}
+				if (bytes[j] == bytes[k]) {
+					k++;
+				}
+				prefix[j] = k;
+			}
+
+		}
+
+		@Override
+		public int getLength() {
+			return bytes.length;
+		}
+
+		@Override
+		public int getMaxLength() {
+			return bytes.length;
 		}
 
+		@Override
 		public boolean match(byte b) {
 
+			while (i > 0 && bytes[i] != b) {
+				i = prefix[i - 1];
+			}
+
 			if (bytes[i] == b) {
 				i++;
 				if (i >= bytes.length) {
 					i = 0;
 					return true;
 				}
-			} else {
-				i = 0;
 			}
 
 			return false;
 
 		}
 
+		@Override
+		public int indexOf(ByteBuffer buffer, int from, int to) {
+
+			int index = from;
+			while (index < to) {
+
+				if (i == 0) {
+					index = MessageReader.indexOf(buffer, bytes[0], index, to);
+					if (index < 0) {
+						return -1;
+					}
+				}
+
+				if (match(buffer.get(index))) {
+					return index;
+				}
+
+				index++;
+
+			}
+
+			return -1;
+
+		}
+
+		@Override
+		public void reset() {
+			i = 0;
+		}
+
+	}
+
+	public static class ByteArraysMatcher extends Matcher {
+
+		private final int[] lengths;
+		private final int maxLength;
+		private final int[][] transitions;
+		private final int[] output;
+		private final int firstByte;
+		private int state = 0;
+		private int matched = -1;
+
+		public ByteArraysMatcher(byte[]... patterns) {
+
+			if (patterns.length == 0) {
+				throw new IllegalArgumentException("No patterns"); //$NON-NLS-1$
+			}
+
+			lengths = new int[patterns.length];
+
+			int maxStates = 1;
+			int max = 0;
+			for (int i = 0; i < patterns.length; i++) {
+				if (patterns[i].length == 0) {
+					throw new IllegalArgumentException("Pattern is empty"); //$NON-NLS-1$
+				}
+				lengths[i] = patterns[i].length;
+				maxStates += patterns[i].length;
+				max = Math.max(max, patterns[i].length);
+			}
+
+			maxLength = max;
+
+			// Aho-Corasick automaton, the trie is completed into a table with a transition for every state and byte
+			int[][] trie = new int[maxStates][];
+			int[] out = new int[maxStates];
+			int stateCount = 1;
+
+			trie[0] = newRow();
+			out[0] = -1;
+
+			int first = patterns[0][0] & 0xFF;
+
+			for (int i = 0; i < patterns.length; i++) {
+
+				if ((patterns[i][0] & 0xFF) != first) {
+					first = -1;
+				}
+
+				int s = 0;
+				for (byte b : patterns[i]) {
+					int c = b & 0xFF;
+					if (trie[s][c] < 0) {
+						trie[stateCount] = newRow();
+						out[stateCount] = -1;
+						trie[s][c] = stateCount++;
+					}
+					s = trie[s][c];
+				}
+
+				if (out[s] < 0) {
+					out[s] = i;
+				}
+
+			}
+
+			int[] fail = new int[stateCount];
+			int[] queue = new int[stateCount];
+			int head = 0;
+			int tail = 0;
+
+			for (int c = 0; c < 256; c++) {
+				if (trie[0][c] < 0) {
+					trie[0][c] = 0;
+				} else {
+					fail[trie[0][c]] = 0;
+					queue[tail++] = trie[0][c];
+				}
+			}
+
+			while (head < tail) {
+
+				int s = queue[head++];
+
+				for (int c = 0; c < 256; c++) {
+
+					int u = trie[s][c];
+					if (u < 0) {
+						trie[s][c] = trie[fail[s]][c];
+					} else {
+						fail[u] = trie[fail[s]][c];
+						if (out[u] < 0) {
+							out[u] = out[fail[u]];
+						}
+						queue[tail++] = u;
+					}
+
+				}
+
+			}
+
+			transitions = new int[stateCount][];
+			System.arraycopy(trie, 0, transitions, 0, stateCount);
+			output = new int[stateCount];
+			System.arraycopy(out, 0, output, 0, stateCount);
+			firstByte = first;
+
+		}
+
+		private static int[] newRow() {
+			int[] row = new int[256];
+			Arrays.fill(row, -1);
+			return row;
+		}
+
+		// Index of the pattern that was matched last
+		public int getMatched() {
+			return matched;
+		}
+
+		@Override
+		public int getLength() {
+			return matched >= 0 ? lengths[matched] : 0;
+		}
+
+		@Override
+		public int getMaxLength() {
+			return maxLength;
+		}
+
+		@Override
+		public boolean match(byte b) {
+
+			state = transitions[state][b & 0xFF];
+
+			if (output[state] >= 0) {
+				matched = output[state];
+				state = 0;
+				return true;
+			}
+
+			return false;
+
+		}
+
+		@Override
+		public int indexOf(ByteBuffer buffer, int from, int to) {
+
+			int index = from;
+			while (index < to) {
+
+				if (state == 0 && firstByte >= 0) {
+					index = MessageReader.indexOf(buffer, (byte) firstByte, index, to);
+					if (index < 0) {
+						return -1;
+					}
+				}
+
+				if (match(buffer.get(index))) {
+					return index;
+				}
+
+				index++;
+
+			}
+
+			return -1;
+
+		}
+
+		@Override
+		public void reset() {
+			state = 0;
+		}
+
 	}
 
 }
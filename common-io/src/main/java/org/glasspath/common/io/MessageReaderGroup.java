@@ -0,0 +1,226 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glasspath.common.Common;
+
+public class MessageReaderGroup {
+
+	private final EventLoop[] eventLoops;
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
+	private MessageReaderMetrics metrics = null;
+	private volatile boolean exit = false;
+
+	public MessageReaderGroup() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public MessageReaderGroup(int threadCount) throws IOException {
+
+		eventLoops = new EventLoop[Math.max(1, threadCount)];
+		for (int i = 0; i < eventLoops.length; i++) {
+			eventLoops[i] = new EventLoop(i);
+		}
+
+		for (EventLoop eventLoop : eventLoops) {
+			eventLoop.thread.start();
+		}
+
+	}
+
+	public <T extends SelectableChannel & ReadableByteChannel> void register(T channel, ChannelMessageReader reader) throws IOException {
+
+		if (exit) {
+			throw new IllegalStateException("MessageReaderGroup has exited"); //$NON-NLS-1$
+		}
+
+		channel.configureBlocking(false);
+
+		if (metrics != null && reader.getMetrics() == null) {
+			reader.setMetrics(metrics);
+		}
+
+		EventLoop eventLoop = eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+		eventLoop.registrations.add(new Connection(channel, reader));
+		eventLoop.selector.wakeup();
+
+	}
+
+	public MessageReaderMetrics getMetrics() {
+		return metrics;
+	}
+
+	// Readers registered after this call (without metrics of their own) add to these aggregated metrics
+	public void setMetrics(MessageReaderMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getThreadCount() {
+		return eventLoops.length;
+	}
+
+	public int getConnectionCount() {
+
+		int count = 0;
+		for (EventLoop eventLoop : eventLoops) {
+			count += eventLoop.connectionCount;
+		}
+
+		return count;
+
+	}
+
+	protected void connectionClosed(SelectableChannel channel, ChannelMessageReader reader, Exception exception) {
+		if (exception != null) {
+			Common.LOGGER.error("Exception while reading from channel: ", exception); //$NON-NLS-1$
+		}
+	}
+
+	public void exit() {
+
+		exit = true;
+
+		for (EventLoop eventLoop : eventLoops) {
+			eventLoop.selector.wakeup();
+		}
+
+	}
+
+	private static class Connection {
+
+		private final SelectableChannel channel;
+		private final ChannelMessageReader reader;
+
+		private Connection(SelectableChannel channel, ChannelMessageReader reader) {
+			this.channel = channel;
+			this.reader = reader;
+		}
+
+	}
+
+	private class EventLoop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<Connection> registrations = new ConcurrentLinkedQueue<>();
+		private final Thread thread;
+		private volatile int connectionCount = 0;
+
+		private EventLoop(int index) throws IOException {
+			this.selector = Selector.open();
+			this.thread = new Thread(this, "MessageReaderGroup-" + index); //$NON-NLS-1$
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+
+			try {
+
+				while (!exit) {
+
+					selector.select();
+
+					Connection connection;
+					while ((connection = registrations.poll()) != null) {
+						try {
+							connection.channel.register(selector, SelectionKey.OP_READ, connection);
+							connectionCount++;
+						} catch (Exception e) {
+							close(connection, e);
+						}
+					}
+
+					Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+					while (selectedKeys.hasNext()) {
+
+						SelectionKey key = selectedKeys.next();
+						selectedKeys.remove();
+
+						connection = (Connection) key.attachment();
+
+						try {
+							if (key.isValid() && key.isReadable() && connection.reader.read((ReadableByteChannel) connection.channel) < 0) {
+								key.cancel();
+								connectionCount--;
+								close(connection, null);
+							}
+						} catch (Exception e) {
+							key.cancel();
+							connectionCount--;
+							close(connection, e);
+						}
+
+					}
+
+				}
+
+			} catch (Exception e) {
+				Common.LOGGER.error("Exception in selector loop: ", e); //$NON-NLS-1$
+			} finally {
+
+				for (SelectionKey key : selector.keys()) {
+					close((Connection) key.attachment(), null);
+				}
+
+				Connection connection;
+				while ((connection = registrations.poll()) != null) {
+					close(connection, null);
+				}
+
+				connectionCount = 0;
+
+				try {
+					selector.close();
+				} catch (IOException e) {
+					Common.LOGGER.error("Exception while closing selector: ", e); //$NON-NLS-1$
+				}
+
+			}
+
+		}
+
+		private void close(Connection connection, Exception exception) {
+
+			try {
+				connection.channel.close();
+			} catch (IOException e) {
+				Common.LOGGER.error("Exception while closing channel: ", e); //$NON-NLS-1$
+			}
+
+			connectionClosed(connection.channel, connection.reader, exception);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,320 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters of one or more readers, a single instance can be shared by readers to aggregate them.
+// Updating uses LongAdders only, so readers don't contend with each other and don't allocate.
+public class MessageReaderMetrics implements MessageReaderMetricsMBean {
+
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder messageCount = new LongAdder();
+	private final LongAdder discardedBytes = new LongAdder();
+	private final LongAdder droppedMessageCount = new LongAdder();
+	private final LongAdder bufferGrowthCount = new LongAdder();
+	private final LongAdder compactionCount = new LongAdder();
+	private final LongAdder emptyReadCount = new LongAdder();
+	private final Histogram messageLengths = new Histogram();
+	private final Histogram handlerNanos = new Histogram();
+	private ObjectName objectName = null;
+
+	public MessageReaderMetrics() {
+
+	}
+
+	void bytesRead(int length) {
+		bytesRead.add(length);
+	}
+
+	void messageReceived(int length) {
+		messageCount.increment();
+		messageLengths.record(length);
+	}
+
+	void bytesDiscarded(int length) {
+		discardedBytes.add(length);
+	}
+
+	void messageDropped() {
+		droppedMessageCount.increment();
+	}
+
+	void bufferGrown() {
+		bufferGrowthCount.increment();
+	}
+
+	void bufferCompacted() {
+		compactionCount.increment();
+	}
+
+	void emptyRead() {
+		emptyReadCount.increment();
+	}
+
+	void messageHandled(long nanos) {
+		handlerNanos.record(nanos);
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getMessageCount() {
+		return messageCount.sum();
+	}
+
+	@Override
+	public long getDiscardedBytes() {
+		return discardedBytes.sum();
+	}
+
+	@Override
+	public long getDroppedMessageCount() {
+		return droppedMessageCount.sum();
+	}
+
+	@Override
+	public long getBufferGrowthCount() {
+		return bufferGrowthCount.sum();
+	}
+
+	@Override
+	public long getCompactionCount() {
+		return compactionCount.sum();
+	}
+
+	@Override
+	public long getEmptyReadCount() {
+		return emptyReadCount.sum();
+	}
+
+	@Override
+	public double getMeanMessageLength() {
+		return messageLengths.getMean();
+	}
+
+	@Override
+	public long getMessageLength99thPercentile() {
+		return messageLengths.getPercentile(99.0);
+	}
+
+	@Override
+	public double getMeanHandlerNanos() {
+		return handlerNanos.getMean();
+	}
+
+	@Override
+	public long getHandlerNanos99thPercentile() {
+		return handlerNanos.getPercentile(99.0);
+	}
+
+	public Histogram getMessageLengths() {
+		return messageLengths;
+	}
+
+	public Histogram getHandlerNanos() {
+		return handlerNanos;
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	public synchronized void registerMBean(String name) throws JMException {
+		unregisterMBean();
+		objectName = new ObjectName("org.glasspath.common.io:type=MessageReaderMetrics,name=" + ObjectName.quote(name)); //$NON-NLS-1$
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+	}
+
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	// Histogram with power of 2 buckets, bucket i counts the values v with 2^(i-1) <= v < 2^i (bucket 0 counts zeros)
+	public static class Histogram {
+
+		public static final int BUCKET_COUNT = 64;
+
+		private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+		private final LongAdder sum = new LongAdder();
+
+		public Histogram() {
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		public void record(long value) {
+			buckets[Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, value)))].increment();
+			sum.add(value);
+		}
+
+		public long[] getCounts() {
+
+			long[] counts = new long[BUCKET_COUNT];
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				counts[i] = buckets[i].sum();
+			}
+
+			return counts;
+
+		}
+
+		public long getCount() {
+
+			long count = 0;
+			for (LongAdder bucket : buckets) {
+				count += bucket.sum();
+			}
+
+			return count;
+
+		}
+
+		public long getSum() {
+			return sum.sum();
+		}
+
+		public double getMean() {
+			long count = getCount();
+			return count > 0 ? (double) getSum() / count : 0.0;
+		}
+
+		// Returns the upper bound of the bucket that contains the percentile
+		public long getPercentile(double percentile) {
+			return getPercentile(getCounts(), percentile);
+		}
+
+		public static long getPercentile(long[] counts, double percentile) {
+
+			long count = 0;
+			for (long c : counts) {
+				count += c;
+			}
+
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = (long) Math.ceil(count * percentile / 100.0);
+
+			long total = 0;
+			for (int i = 0; i < counts.length; i++) {
+				total += counts[i];
+				if (total >= rank) {
+					return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+				}
+			}
+
+			return Long.MAX_VALUE;
+
+		}
+
+	}
+
+	// Plain copy of the counters, for exporters that scrape the metrics
+	public static class Snapshot {
+
+		private final long bytesRead;
+		private final long messageCount;
+		private final long discardedBytes;
+		private final long droppedMessageCount;
+		private final long bufferGrowthCount;
+		private final long compactionCount;
+		private final long emptyReadCount;
+		private final long[] messageLengthCounts;
+		private final long messageLengthSum;
+		private final long[] handlerNanosCounts;
+		private final long handlerNanosSum;
+
+		private Snapshot(MessageReaderMetrics metrics) {
+			this.bytesRead = metrics.getBytesRead();
+			this.messageCount = metrics.getMessageCount();
+			this.discardedBytes = metrics.getDiscardedBytes();
+			this.droppedMessageCount = metrics.getDroppedMessageCount();
+			this.bufferGrowthCount = metrics.getBufferGrowthCount();
+			this.compactionCount = metrics.getCompactionCount();
+			this.emptyReadCount = metrics.getEmptyReadCount();
+			this.messageLengthCounts = metrics.messageLengths.getCounts();
+			this.messageLengthSum = metrics.messageLengths.getSum();
+			this.handlerNanosCounts = metrics.handlerNanos.getCounts();
+			this.handlerNanosSum = metrics.handlerNanos.getSum();
+		}
+
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		public long getMessageCount() {
+			return messageCount;
+		}
+
+		public long getDiscardedBytes() {
+			return discardedBytes;
+		}
+
+		public long getDroppedMessageCount() {
+			return droppedMessageCount;
+		}
+
+		public long getBufferGrowthCount() {
+			return bufferGrowthCount;
+		}
+
+		public long getCompactionCount() {
+			return compactionCount;
+		}
+
+		public long getEmptyReadCount() {
+			return emptyReadCount;
+		}
+
+		public long[] getMessageLengthCounts() {
+			return messageLengthCounts;
+		}
+
+		public long getMessageLengthSum() {
+			return messageLengthSum;
+		}
+
+		public long[] getHandlerNanosCounts() {
+			return handlerNanosCounts;
+		}
+
+		public long getHandlerNanosSum() {
+			return handlerNanosSum;
+		}
+
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+// Inflates the members of a multi-member gzip stream in parallel. The compressed size of a member has to be known
+// up front, this is the case for blocked gzip (BGZF, written by bgzip and others) where every member carries its
+// size in the 'BC' extra field. Streams of which the first member has no size are inflated sequentially instead.
+public class ParallelGzipInputStream extends InputStream {
+
+	private static final int HEADER_LENGTH = 12;
+	private static final int EXTRA_LENGTH = 6;
+	private static final int MAX_BLOCK_LENGTH = 65536;
+
+	private final InputStream in;
+	private final Executor executor;
+	private final int maxPending;
+	private final InflaterPool inflaterPool;
+	private final BufferPool bufferPool;
+	private final InputStream sequential;
+	private final Deque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+	private final byte[] header = new byte[HEADER_LENGTH + EXTRA_LENGTH];
+	private int headerLength = 0;
+	private Block block = null;
+	private boolean eof = false;
+	private boolean closed = false;
+	private final byte[] singleByte = new byte[1];
+
+	public ParallelGzipInputStream(InputStream in) throws IOException {
+		this(in, ForkJoinPool.commonPool(), Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2));
+	}
+
+	public ParallelGzipInputStream(InputStream in, Executor executor, int maxPending) throws IOException {
+
+		this.in = in.markSupported() ? in : new BufferedInputStream(in, MAX_BLOCK_LENGTH);
+		this.executor = executor;
+		this.maxPending = Math.max(1, maxPending);
+		this.inflaterPool = InflaterPool.getShared();
+		this.bufferPool = BufferPool.getShared();
+
+		this.in.mark(header.length);
+		boolean blocked = readHeader() && getBlockLength() > 0;
+		this.in.reset();
+
+		sequential = blocked ? null : new InflatingInputStream(this.in, InflatingInputStream.Format.GZIP);
+
+	}
+
+	public boolean isParallel() {
+		return sequential == null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == 1 ? singleByte[0] & 0xFF : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+
+		if (closed) {
+			throw new IOException("Stream closed"); //$NON-NLS-1$
+		} else if (sequential != null) {
+			return sequential.read(b, off, len);
+		} else if (len == 0) {
+			return 0;
+		}
+
+		while (block == null || block.position >= block.length) {
+
+			if (block != null) {
+				bufferPool.release(block.bytes);
+				block = null;
+			}
+
+			submitBlocks();
+
+			CompletableFuture<Block> next = pending.poll();
+			if (next == null) {
+				return -1;
+			}
+
+			try {
+				block = next.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+
+		}
+
+		int length = Math.min(len, block.length - block.position);
+		System.arraycopy(block.bytes, block.position, b, off, length);
+		block.position += length;
+
+		return length;
+
+	}
+
+	private void submitBlocks() throws IOException {
+
+		while (!eof && pending.size() < maxPending) {
+
+			if (!readHeader()) {
+				eof = true;
+				return;
+			}
+
+			int blockLength = getBlockLength();
+			if (blockLength <= 0) {
+				throw new ZipException("Gzip member without block size, can't be inflated in parallel"); //$NON-NLS-1$
+			}
+
+			byte[] compressed = bufferPool.acquire(blockLength);
+			System.arraycopy(header, 0, compressed, 0, headerLength);
+			readFully(compressed, headerLength, blockLength - headerLength);
+
+			pending.add(CompletableFuture.supplyAsync(() -> inflate(compressed, blockLength), executor));
+
+		}
+
+	}
+
+	private boolean readHeader() throws IOException {
+
+		int first = in.read();
+		if (first < 0) {
+			return false;
+		}
+
+		header[0] = (byte) first;
+		readFully(header, 1, HEADER_LENGTH - 1);
+
+		if ((header[0] & 0xFF) != 0x1f || (header[1] & 0xFF) != 0x8b) {
+			throw new ZipException("Not in gzip format"); //$NON-NLS-1$
+		}
+
+		headerLength = HEADER_LENGTH;
+
+		// A BGZF member has only the 'BC' extra field (6 bytes)
+		if ((header[3] & 4) != 0 && ((header[10] & 0xFF) | ((header[11] & 0xFF) << 8)) == EXTRA_LENGTH) {
+			readFully(header, HEADER_LENGTH, EXTRA_LENGTH);
+			headerLength += EXTRA_LENGTH;
+		}
+
+		return true;
+
+	}
+
+	// Returns the total length of the member from the BGZF extra field, or -1 if the member doesn't have one
+	private int getBlockLength() {
+
+		if (headerLength < HEADER_LENGTH + EXTRA_LENGTH || header[12] != 'B' || header[13] != 'C' || header[14] != 2 || header[15] != 0) {
+			return -1;
+		}
+
+		return ((header[16] & 0xFF) | ((header[17] & 0xFF) << 8)) + 1;
+
+	}
+
+	private void readFully(byte[] bytes, int offset, int length) throws IOException {
+
+		while (length > 0) {
+
+			int n = in.read(bytes, offset, length);
+			if (n < 0) {
+				throw new EOFException("Unexpected end of gzip stream"); //$NON-NLS-1$
+			}
+
+			offset += n;
+			length -= n;
+
+		}
+
+	}
+
+	private Block inflate(byte[] compressed, int blockLength) {
+
+		Inflater inflater = inflaterPool.acquire(true);
+		byte[] bytes = null;
+
+		try {
+
+			int trailer = blockLength - 8;
+			long expectedCrc = readInt(compressed, trailer) & 0xFFFFFFFFL;
+			int expectedLength = readInt(compressed, trailer + 4);
+
+			// The size comes from the stream, a block can't inflate beyond the block size limit
+			if (expectedLength < 0 || expectedLength > MAX_BLOCK_LENGTH) {
+				throw new ZipException("Invalid gzip block size: " + (expectedLength & 0xFFFFFFFFL)); //$NON-NLS-1$
+			}
+
+			int dataOffset = HEADER_LENGTH + EXTRA_LENGTH;
+			inflater.setInput(compressed, dataOffset, trailer - dataOffset);
+
+			bytes = bufferPool.acquire(Math.max(1, expectedLength));
+			int length = 0;
+
+			while (!inflater.finished() && length < expectedLength) {
+
+				int n = inflater.inflate(bytes, length, expectedLength - length);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new ZipException("Truncated gzip member"); //$NON-NLS-1$
+				}
+
+				length += n;
+
+			}
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, length);
+
+			if (length != expectedLength || crc.getValue() != expectedCrc) {
+				throw new ZipException("Corrupt gzip trailer"); //$NON-NLS-1$
+			}
+
+			Block block = new Block(bytes, length);
+			bytes = null;
+
+			return block;
+
+		} catch (ZipException e) {
+			throw new CompletionException(e);
+		} catch (DataFormatException e) {
+			throw new CompletionException(new ZipException(e.getMessage()));
+		} finally {
+			inflaterPool.release(inflater, true);
+			bufferPool.release(compressed);
+			if (bytes != null) {
+				bufferPool.release(bytes); // Not handed over to a block because inflating failed
+			}
+		}
+
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		if (!closed) {
+
+			closed = true;
+
+			if (sequential != null) {
+				sequential.close();
+			} else {
+				in.close();
+			}
+
+		}
+
+	}
+
+	private static class Block {
+
+		private final byte[] bytes;
+		private final int length;
+		private int position = 0;
+
+		private Block(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import org.glasspath.common.io.MessageDispatcher.Backpressure;
+
+// Processes messages in parallel on single threaded lanes, messages with the same key always
+// end up in the same lane so they are handled in the order in which they were received
+public class ShardedMessageDispatcher implements MessageHandler {
+
+	private final KeyExtractor keyExtractor;
+	private final MessageDispatcher[] lanes;
+
+	public ShardedMessageDispatcher(MessageHandler handler, KeyExtractor keyExtractor, int laneCount) {
+		this(handler, keyExtractor, laneCount, MessageDispatcher.DEFAULT_CAPACITY, MessageDispatcher.DEFAULT_SLOT_SIZE, MessageDispatcher.DEFAULT_BATCH_SIZE);
+	}
+
+	public ShardedMessageDispatcher(MessageHandler handler, KeyExtractor keyExtractor, int laneCount, int capacity, int slotSize, int batchSize) {
+
+		this.keyExtractor = keyExtractor;
+
+		// Every lane is a dispatcher with a single worker, dropping messages would break the ordering guarantee
+		lanes = new MessageDispatcher[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new MessageDispatcher(handler, 1, capacity, slotSize, batchSize, Backpressure.BLOCK);
+		}
+
+	}
+
+	@Override
+	public void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+
+		int hash = keyExtractor.getKey(bytes, messageStart, messageEnd);
+		hash ^= hash >>> 16;
+
+		lanes[Math.floorMod(hash, lanes.length)].messageReceived(bytes, messageStart, messageEnd);
+
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	public MessageDispatcher getLane(int index) {
+		return lanes[index];
+	}
+
+	public void exit() {
+		for (MessageDispatcher lane : lanes) {
+			lane.exit();
+		}
+	}
+
+	public interface KeyExtractor {
+
+		public int getKey(byte[] bytes, int messageStart, int messageEnd);
+
+		// Uses the bytes at the given offset in the message as key, a shorter message uses the bytes it has
+		public static KeyExtractor bytesAt(int offset, int length) {
+
+			return (bytes, messageStart, messageEnd) -> {
+
+				int from = messageStart + offset;
+				int to = Math.min(from + length, messageEnd + 1);
+
+				int key = 1;
+				for (int i = from; i < to; i++) {
+					key = 31 * key + bytes[i];
+				}
+
+				return key;
+
+			};
+
+		}
+
+	}
+
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+public abstract class WaitStrategy {
+
+	private volatile long idleCount = 0;
+	private int consecutiveIdleCount = 0;
+
+	public WaitStrategy() {
+
+	}
+
+	// Called by the reader when a read returned no bytes
+	public void idle() throws InterruptedException {
+		idleCount++;
+		idle(consecutiveIdleCount);
+
+		// Saturated, a strategy would otherwise go back to spinning after a long idle period
+		if (consecutiveIdleCount < Integer.MAX_VALUE) {
+			consecutiveIdleCount++;
+		}
+
+	}
+
+	protected abstract void idle(int consecutiveIdleCount) throws InterruptedException;
+
+	// Called by the reader when a read returned bytes, this ends a backoff
+	public void reset() {
+		consecutiveIdleCount = 0;
+	}
+
+	// Wakes up a reader that is waiting, only strategies that block make use of this
+	public void signal() {
+
+	}
+
+	public long getIdleCount() {
+		return idleCount;
+	}
+
+	public static class BusySpin extends WaitStrategy {
+
+		@Override
+		protected void idle(int consecutiveIdleCount) throws InterruptedException {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+
+	}
+
+	public static class SpinYield extends WaitStrategy {
+
+		public static final int DEFAULT_SPIN_COUNT = 100;
+
+		private final int spinCount;
+
+		public SpinYield() {
+			this(DEFAULT_SPIN_COUNT);
+		}
+
+		public SpinYield(int spinCount) {
+			this.spinCount = spinCount;
+		}
+
+		@Override
+		protected void idle(int consecutiveIdleCount) throws InterruptedException {
+
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			if (consecutiveIdleCount >= spinCount) {
+				Thread.yield();
+			}
+
+		}
+
+	}
+
+	public static class ParkBackoff extends WaitStrategy {
+
+		public static final int DEFAULT_SPIN_COUNT = 10;
+		public static final int DEFAULT_YIELD_COUNT = 10;
+		public static final long DEFAULT_MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+		public static final long DEFAULT_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+		private final int spinCount;
+		private final int yieldCount;
+		private final long minParkNanos;
+		private final long maxParkNanos;
+		private long parkNanos;
+
+		public ParkBackoff() {
+			this(DEFAULT_SPIN_COUNT, DEFAULT_YIELD_COUNT, DEFAULT_MIN_PARK_NANOS, DEFAULT_MAX_PARK_NANOS);
+		}
+
+		public ParkBackoff(int spinCount, int yieldCount, long minParkNanos, long maxParkNanos) {
+			this.spinCount = spinCount;
+			this.yieldCount = yieldCount;
+			this.minParkNanos = minParkNanos;
+			this.maxParkNanos = maxParkNanos;
+			this.parkNanos = minParkNanos;
+		}
+
+		@Override
+		protected void idle(int consecutiveIdleCount) throws InterruptedException {
+
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+
+			if (consecutiveIdleCount < spinCount) {
+				// Spin
+			} else if (consecutiveIdleCount < spinCount + yieldCount) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(parkNanos);
+				parkNanos = Math.min(parkNanos * 2, maxParkNanos);
+			}
+
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			parkNanos = minParkNanos;
+		}
+
+	}
+
+	public static class Sleep extends WaitStrategy {
+
+		public static final long DEFAULT_SLEEP_MILLIS = 1;
+
+		private final long sleepMillis;
+
+		public Sleep() {
+			this(DEFAULT_SLEEP_MILLIS);
+		}
+
+		public Sleep(long sleepMillis) {
+			this.sleepMillis = sleepMillis;
+		}
+
+		@Override
+		protected void idle(int consecutiveIdleCount) throws InterruptedException {
+			Thread.sleep(sleepMillis);
+		}
+
+	}
+
+	public static class Blocking extends WaitStrategy {
+
+		public static final long DEFAULT_TIMEOUT_MILLIS = 100;
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition signalled = lock.newCondition();
+		private final long timeoutMillis;
+		private boolean signal = false;
+
+		public Blocking() {
+			this(DEFAULT_TIMEOUT_MILLIS);
+		}
+
+		// The timeout limits the wait when a source can't signal new data
+		public Blocking(long timeoutMillis) {
+			this.timeoutMillis = timeoutMillis;
+		}
+
+		@Override
+		protected void idle(int consecutiveIdleCount) throws InterruptedException {
+
+			lock.lock();
+			try {
+
+				long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+				while (!signal && nanos > 0) {
+					nanos = signalled.awaitNanos(nanos);
+				}
+
+				signal = false;
+
+			} finally {
+				lock.unlock();
+			}
+
+		}
+
+		@Override
+		public void signal() {
+
+			lock.lock();
+			try {
+				signal = true;
+				signalled.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+		}
+
+	}
+
+}
@@ -32,9 +32,9 @@ import org.glasspath.common.Common;
 
 public class DefaultFileList extends FileList {
 
-	private final List<File> files = new ArrayList<>();
+	protected final List<File> files = new ArrayList<>();
 	private File directory = null;
-	private boolean valid = false;
+	protected boolean valid = false;
 
 	public DefaultFileList() {
 
@@ -101,10 +101,15 @@ public class DefaultFileList extends FileList {
 		return files.get(index);
 	}
 
+	// The files are kept sorted (also by incremental updates), File.compareTo() is consistent with File.equals()
 	@Override
 	public int indexOf(File file) {
 		validate();
-		return files.indexOf(file);
+		if (file == null) {
+			return -1;
+		}
+		int index = Collections.binarySearch(files, file);
+		return index >= 0 ? index : -1;
 	}
 
 }
@@ -0,0 +1,228 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io.file;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.glasspath.common.Common;
+
+// Keeps the list up to date with WatchService events instead of reloading the whole directory, created
+// and deleted files are inserted and removed at their sorted position. The directory is only listed again
+// when the list is invalidated or when events were lost (OVERFLOW). filesChanged() is called on the
+// watcher thread after the list was changed.
+public class WatchingFileList extends DefaultFileList {
+
+	private WatchService watchService = null;
+	private WatchKey watchKey = null;
+	private Path watchedDirectory = null;
+	private Thread thread = null;
+	private volatile boolean exit = false;
+
+	public WatchingFileList() {
+
+	}
+
+	public WatchingFileList(File directory, FileFilter fileFilter) {
+		super(directory, fileFilter);
+	}
+
+	@Override
+	public synchronized void setDirectory(File directory) {
+		super.setDirectory(directory);
+	}
+
+	@Override
+	public synchronized void fileFilterChanged() {
+		super.fileFilterChanged();
+	}
+
+	@Override
+	public synchronized void validate() {
+		super.validate();
+	}
+
+	@Override
+	public synchronized void reload() {
+
+		// Register before listing the directory so no changes are missed, events
+		// for files which are already listed are ignored
+		watch();
+
+		super.reload();
+
+	}
+
+	private void watch() {
+
+		File directory = getDirectory();
+		Path path = directory != null && directory.isDirectory() ? directory.toPath() : null;
+		if (exit || Objects.equals(path, watchedDirectory)) {
+			return;
+		}
+
+		if (watchKey != null) {
+			watchKey.cancel();
+			watchKey = null;
+		}
+
+		watchedDirectory = path;
+
+		if (path != null) {
+
+			try {
+
+				if (watchService == null) {
+
+					watchService = path.getFileSystem().newWatchService();
+
+					thread = new Thread(this::processEvents, "WatchingFileList"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					thread.start();
+
+				}
+
+				watchKey = path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+
+			} catch (Exception e) {
+				Common.LOGGER.error("Exception while watching directory: ", e); //$NON-NLS-1$
+			}
+
+		}
+
+	}
+
+	private void processEvents() {
+
+		while (!exit) {
+
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+
+			List<WatchEvent<?>> events = key.pollEvents();
+
+			boolean changed = false;
+			synchronized (this) {
+
+				// Events of a previous directory are ignored and an invalid list is reloaded
+				// completely on the next access anyway
+				if (key == watchKey && valid) {
+					changed = processEvents(events);
+				}
+
+			}
+
+			key.reset();
+
+			if (changed) {
+				filesChanged();
+			}
+
+		}
+
+	}
+
+	private boolean processEvents(List<WatchEvent<?>> events) {
+
+		boolean changed = false;
+
+		for (WatchEvent<?> event : events) {
+
+			if (event.kind() == OVERFLOW) {
+				reload();
+				return true;
+			}
+
+			File file = new File(getDirectory(), event.context().toString());
+			boolean accepted = event.kind() != ENTRY_DELETE && file.exists() && (fileFilter == null || fileFilter.accept(file));
+
+			int index = Collections.binarySearch(files, file);
+			if (accepted && index < 0) {
+				files.add(-index - 1, file);
+				changed = true;
+			} else if (!accepted && index >= 0) {
+				files.remove(index);
+				changed = true;
+			}
+
+		}
+
+		return changed;
+
+	}
+
+	protected void filesChanged() {
+
+	}
+
+	@Override
+	public synchronized int size() {
+		return super.size();
+	}
+
+	@Override
+	public synchronized File get(int index) {
+		return super.get(index);
+	}
+
+	@Override
+	public synchronized int indexOf(File file) {
+		return super.indexOf(file);
+	}
+
+	public void exit() {
+
+		exit = true;
+
+		synchronized (this) {
+
+			if (watchService != null) {
+				try {
+					watchService.close();
+				} catch (Exception e) {
+					Common.LOGGER.error("Exception while closing watch service: ", e); //$NON-NLS-1$
+				}
+			}
+
+		}
+
+	}
+
+}
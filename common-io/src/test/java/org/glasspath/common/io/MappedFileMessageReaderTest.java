@@ -0,0 +1,109 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MappedFileMessageReaderTest {
+
+	@Test
+	public void testMessageEndingInNextChunk() throws Exception {
+		assertSameMessages("AAB", "BA", "xxAABxxxxBAABxxBAxx", 10);
+	}
+
+	@Test
+	public void testOverlappingStartAndEndMarkers() throws Exception {
+		assertSameMessages("AA", "AA", "AAAA", 1);
+		assertSameMessages("AA", "AA", "AAAA", 2);
+		assertSameMessages("AB", "BA", "xABAxABBAxABABAx", 3);
+		assertSameMessages("ABA", "BAB", "ABABABxABABAxBABABA", 4);
+		assertSameMessages("ABAB", "BB", "xxBxAAAABBxBBABBxBABAABxAABxAABABAAxxAABAABBxAxBABBxxxAxBABxAxBABAABB", 8);
+	}
+
+	private static void assertSameMessages(String start, String end, String data, int chunkSize) throws Exception {
+
+		byte[] startBytes = start.getBytes(StandardCharsets.US_ASCII);
+		byte[] endBytes = end.getBytes(StandardCharsets.US_ASCII);
+		byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+
+		List<String> expected = new ArrayList<>();
+		new MessageReader(startBytes, endBytes) {
+
+			@Override
+			protected void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+				expected.add(new String(bytes, messageStart, (messageEnd + 1) - messageStart, StandardCharsets.US_ASCII));
+			}
+		}.readAllBytes(new ByteArrayInputStream(bytes));
+
+		File file = File.createTempFile("messages", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+
+			Files.write(file.toPath(), bytes);
+
+			assertEquals(expected, readFile(file, startBytes, endBytes, chunkSize, true));
+
+			List<String> sorted = new ArrayList<>(expected);
+			Collections.sort(sorted);
+			List<String> unordered = readFile(file, startBytes, endBytes, chunkSize, false);
+			Collections.sort(unordered);
+			assertEquals(sorted, unordered);
+
+		} finally {
+			file.delete();
+		}
+
+	}
+
+	private static List<String> readFile(File file, byte[] start, byte[] end, int chunkSize, boolean ordered) throws IOException, InterruptedException {
+
+		List<String> messages = Collections.synchronizedList(new ArrayList<>());
+
+		MappedFileMessageReader reader = new MappedFileMessageReader(start, end, chunkSize, (int) file.length()) {
+
+			@Override
+			protected void messageReceived(ByteBuffer message) {
+				byte[] bytes = new byte[message.remaining()];
+				message.get(bytes);
+				messages.add(new String(bytes, StandardCharsets.US_ASCII));
+			}
+		};
+		reader.setOrdered(ordered);
+		reader.readFile(file);
+
+		return new ArrayList<>(messages);
+
+	}
+
+}
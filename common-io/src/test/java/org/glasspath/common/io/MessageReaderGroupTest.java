@@ -0,0 +1,157 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class MessageReaderGroupTest {
+
+	private static final int CONNECTIONS = 500;
+	private static final int THREADS = 2;
+	private static final int FRAMES = 200;
+	private static final int FRAMES_PER_WRITE = 10;
+
+	// Loopback load test, every connection receives its frames in batches and checks their order
+	@Test
+	public void testLoopbackLoad() throws Exception {
+
+		CountDownLatch received = new CountDownLatch(CONNECTIONS * FRAMES);
+		AtomicReference<Throwable> error = new AtomicReference<>();
+
+		MessageReaderGroup group = new MessageReaderGroup(THREADS) {
+
+			@Override
+			protected void connectionClosed(SelectableChannel channel, ChannelMessageReader reader, Exception exception) {
+				if (exception != null) {
+					error.compareAndSet(null, exception);
+				}
+			}
+		};
+		MessageReaderMetrics metrics = new MessageReaderMetrics();
+		group.setMetrics(metrics);
+
+		List<SocketChannel> clients = new ArrayList<>();
+
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), CONNECTIONS);
+
+			for (int i = 0; i < CONNECTIONS; i++) {
+				clients.add(SocketChannel.open(server.getLocalAddress()));
+				group.register(server.accept(), new OrderedFrameReader(received, error));
+			}
+
+			assertEquals(THREADS, group.getThreadCount());
+
+			long start = System.nanoTime();
+
+			StringBuilder builder = new StringBuilder();
+			for (int frame = 0; frame < FRAMES; frame += FRAMES_PER_WRITE) {
+
+				builder.setLength(0);
+				for (int i = frame; i < frame + FRAMES_PER_WRITE; i++) {
+					builder.append('<').append(i).append('>');
+				}
+				byte[] bytes = builder.toString().getBytes(StandardCharsets.US_ASCII);
+
+				for (SocketChannel client : clients) {
+					ByteBuffer buffer = ByteBuffer.wrap(bytes);
+					while (buffer.hasRemaining()) {
+						client.write(buffer);
+					}
+				}
+
+			}
+
+			assertTrue("Not all frames were received", received.await(60, TimeUnit.SECONDS)); //$NON-NLS-1$
+			assertNull(error.get());
+
+			long nanos = System.nanoTime() - start;
+
+			assertEquals(CONNECTIONS, group.getConnectionCount());
+			assertEquals((long) CONNECTIONS * FRAMES, metrics.getMessageCount());
+
+			System.out.println(String.format("MessageReaderGroup: %d connections on %d threads (%d per thread), %d frames in %d ms (%d frames/s)", //$NON-NLS-1$
+					CONNECTIONS, THREADS, CONNECTIONS / THREADS, CONNECTIONS * FRAMES, nanos / 1000000, (long) CONNECTIONS * FRAMES * 1000000000L / nanos));
+
+		} finally {
+
+			for (SocketChannel client : clients) {
+				client.close();
+			}
+
+			group.exit();
+
+		}
+
+	}
+
+	private static class OrderedFrameReader extends ChannelMessageReader {
+
+		private final CountDownLatch received;
+		private final AtomicReference<Throwable> error;
+		private int expected = 0;
+
+		private OrderedFrameReader(CountDownLatch received, AtomicReference<Throwable> error) {
+			super(new byte[] { '<' }, new byte[] { '>' }, 64, false);
+			this.received = received;
+			this.error = error;
+		}
+
+		@Override
+		protected void messageReceived(ByteBuffer message) {
+
+			int value = 0;
+			for (int i = message.position() + 1; i < message.limit() - 1; i++) {
+				value = (value * 10) + (message.get(i) - '0');
+			}
+
+			if (value != expected) {
+				error.compareAndSet(null, new AssertionError("Expected frame " + expected + " but received " + value)); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			expected++;
+			received.countDown();
+
+		}
+
+	}
+
+}
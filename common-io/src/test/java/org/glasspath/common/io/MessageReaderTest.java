@@ -0,0 +1,176 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.glasspath.common.io.MessageReader.ByteArrayMatcher;
+import org.glasspath.common.io.MessageReader.ByteArraysMatcher;
+import org.glasspath.common.io.MessageReader.Matcher;
+import org.junit.Test;
+
+public class MessageReaderTest {
+
+	@Test
+	public void testPartialMatchFallsBackToPrefix() {
+
+		// After AA the third A doesn't fit AAB, but the last two bytes are still a prefix of it
+		assertEquals(3, new ByteArrayMatcher(bytes("AAB")).indexOf(bytes("AAAB"), 0, 4)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(5, new ByteArrayMatcher(bytes("ABAC")).indexOf(bytes("ABABAC"), 0, 6)); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(-1, new ByteArrayMatcher(bytes("AAB")).indexOf(bytes("AAAA"), 0, 4)); //$NON-NLS-1$ //$NON-NLS-2$
+
+	}
+
+	@Test
+	public void testIndexOfEveryOffsetInWord() {
+
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+
+			// Bytes just above and below the searched byte, a carry or borrow between the bytes of a word must not cause a false hit
+			for (byte b : new byte[] { 0x00, 0x01, 0x7F, (byte) 0x80, (byte) 0xFF }) {
+
+				for (int offset = 0; offset < 8; offset++) {
+
+					byte[] bytes = new byte[16];
+					for (int i = 0; i < bytes.length; i++) {
+						bytes[i] = (byte) (b + (i % 2 == 0 ? 1 : -1));
+					}
+					bytes[offset] = b;
+					bytes[offset + 8] = b;
+
+					ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+
+					assertEquals(offset, MessageReader.indexOf(buffer, b, 0, 16));
+					assertEquals(offset + 8, MessageReader.indexOf(buffer, b, offset + 1, 16));
+					assertEquals(-1, MessageReader.indexOf(buffer, b, 0, offset));
+
+				}
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testIndexOfTailBytes() {
+
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN }) {
+
+			// Only the first 8 bytes form a full word, the rest is searched byte by byte
+			for (int offset = 8; offset < 15; offset++) {
+
+				byte[] bytes = new byte[15];
+				Arrays.fill(bytes, (byte) 'x');
+				bytes[offset] = '>';
+
+				ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+
+				assertEquals(offset, MessageReader.indexOf(buffer, (byte) '>', 0, 15));
+				assertEquals(offset, MessageReader.indexOf(buffer, (byte) '>', 3, offset + 1));
+				assertEquals(-1, MessageReader.indexOf(buffer, (byte) '>', 0, offset));
+
+			}
+
+		}
+
+	}
+
+	@Test
+	public void testOverlappingPatterns() {
+
+		ByteArraysMatcher matcher = new ByteArraysMatcher(bytes("BCD"), bytes("ABCE")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(3, matcher.indexOf(bytes("ABCD"), 0, 4)); //$NON-NLS-1$
+		assertEquals(0, matcher.getMatched());
+		assertEquals(3, matcher.getLength());
+
+		// A pattern that is a suffix of another one, the pattern of the state that was reached is reported
+		matcher = new ByteArraysMatcher(bytes("ABC"), bytes("BC")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(3, matcher.indexOf(bytes("xABCx"), 0, 5)); //$NON-NLS-1$
+		assertEquals(0, matcher.getMatched());
+		matcher.reset();
+		assertEquals(2, matcher.indexOf(bytes("xBCx"), 0, 4)); //$NON-NLS-1$
+		assertEquals(1, matcher.getMatched());
+
+		// Patterns with the same first byte, this byte is searched a word at a time
+		matcher = new ByteArraysMatcher(bytes("<a>"), bytes("<b>"), bytes("<ab>")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		assertEquals(14, matcher.indexOf(bytes("xxxxxxxx<<a<ab>"), 0, 15)); //$NON-NLS-1$
+		assertEquals(2, matcher.getMatched());
+		assertEquals(4, matcher.getLength());
+
+	}
+
+	@Test
+	public void testMarkersSplitAcrossReads() throws Exception {
+
+		String data = "x<msg>1</msg><m<msg>22</ms</msg>xx<msg></msg><msg>333</msg"; //$NON-NLS-1$
+		List<String> expected = Arrays.asList("<msg>1</msg>", "<msg>22</ms</msg>", "<msg></msg>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+		for (int readLength = 1; readLength <= data.length(); readLength++) {
+			assertEquals(expected, readMessages(new ByteArrayMatcher(bytes("<msg>")), new ByteArrayMatcher(bytes("</msg>")), data, readLength)); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals(expected, readMessages(new ByteArraysMatcher(bytes("<msg>"), bytes("<m>")), new ByteArraysMatcher(bytes("</msg>")), data, readLength)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+
+	}
+
+	private static List<String> readMessages(Matcher start, Matcher end, String data, int readLength) throws Exception {
+
+		List<String> messages = new ArrayList<>();
+
+		MessageReader reader = new MessageReader(start, end, 4) {
+
+			@Override
+			protected void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+				messages.add(new String(bytes, messageStart, (messageEnd + 1) - messageStart, StandardCharsets.US_ASCII));
+			}
+		};
+
+		// Returns at most readLength bytes per read, so markers are split over several reads
+		InputStream in = new ByteArrayInputStream(bytes(data)) {
+
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, readLength));
+			}
+		};
+
+		reader.readAllBytes(in);
+
+		return messages;
+
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,240 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+// Loads many (small) documents in parallel on a bounded executor with the shared (thread-safe) reader
+// of the target type, results are returned in input order, a failing document doesn't stop the others.
+public class XmlBulkLoader {
+
+	private static ExecutorService loadExecutor = null;
+
+	private final Executor executor;
+
+	public XmlBulkLoader() {
+		this(getLoadExecutor());
+	}
+
+	// Files are read with blocking calls, so the executor should allow blocking tasks
+	public XmlBulkLoader(Executor executor) {
+		this.executor = executor;
+	}
+
+	// Shared executor with a daemon thread per processor, keeps blocking reads out of the common pool
+	public static synchronized ExecutorService getLoadExecutor() {
+
+		if (loadExecutor == null) {
+
+			AtomicInteger threadCount = new AtomicInteger();
+			loadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+				Thread thread = new Thread(runnable, "XmlBulkLoader-" + threadCount.getAndIncrement()); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			});
+
+		}
+
+		return loadExecutor;
+
+	}
+
+	public <T> Result<T> loadFiles(List<File> files, Class<T> type) {
+
+		List<Path> paths = new ArrayList<>(files.size());
+		for (File file : files) {
+			paths.add(file.toPath());
+		}
+
+		return load(paths, type);
+
+	}
+
+	public <T> Result<T> load(List<Path> paths, Class<T> type) {
+		return load(paths, XmlUtils.getReader(type));
+	}
+
+	public <T> Result<T> load(List<Path> paths, ObjectReader reader) {
+
+		long start = System.nanoTime();
+
+		List<CompletableFuture<Entry<T>>> futures = new ArrayList<>(paths.size());
+		for (Path path : paths) {
+			futures.add(CompletableFuture.supplyAsync(() -> load(path, reader), executor));
+		}
+
+		List<Entry<T>> entries = new ArrayList<>(futures.size());
+		for (CompletableFuture<Entry<T>> future : futures) {
+			entries.add(future.join());
+		}
+
+		return new Result<>(entries, System.nanoTime() - start);
+
+	}
+
+	private static <T> Entry<T> load(Path path, ObjectReader reader) {
+
+		long start = System.nanoTime();
+		int length = 0;
+
+		try {
+
+			byte[] bytes = Files.readAllBytes(path);
+			length = bytes.length;
+
+			T value = reader.readValue(bytes);
+
+			return new Entry<>(path, value, null, length, System.nanoTime() - start);
+
+		} catch (Exception e) {
+			return new Entry<>(path, null, e, length, System.nanoTime() - start);
+		}
+
+	}
+
+	public static class Entry<T> {
+
+		private final Path path;
+		private final T value;
+		private final Exception exception;
+		private final int length;
+		private final long time;
+
+		private Entry(Path path, T value, Exception exception, int length, long time) {
+			this.path = path;
+			this.value = value;
+			this.exception = exception;
+			this.length = length;
+			this.time = time;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public Exception getException() {
+			return exception;
+		}
+
+		public boolean isLoaded() {
+			return exception == null;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		// Time spent reading and binding this document in nanoseconds
+		public long getTime() {
+			return time;
+		}
+
+	}
+
+	public static class Result<T> {
+
+		private final List<Entry<T>> entries;
+		private final long elapsedTime;
+
+		private Result(List<Entry<T>> entries, long elapsedTime) {
+			this.entries = Collections.unmodifiableList(entries);
+			this.elapsedTime = elapsedTime;
+		}
+
+		// Entries in the same order as the input
+		public List<Entry<T>> getEntries() {
+			return entries;
+		}
+
+		// Values in the same order as the input, null for documents which failed to load
+		public List<T> getValues() {
+
+			List<T> values = new ArrayList<>(entries.size());
+			for (Entry<T> entry : entries) {
+				values.add(entry.value);
+			}
+
+			return values;
+
+		}
+
+		public int getErrorCount() {
+
+			int count = 0;
+			for (Entry<T> entry : entries) {
+				if (entry.exception != null) {
+					count++;
+				}
+			}
+
+			return count;
+
+		}
+
+		public long getByteCount() {
+
+			long count = 0;
+			for (Entry<T> entry : entries) {
+				count += entry.length;
+			}
+
+			return count;
+
+		}
+
+		// Wall clock time of the whole load in nanoseconds
+		public long getElapsedTime() {
+			return elapsedTime;
+		}
+
+		// Sum of the time spent on the individual documents in nanoseconds
+		public long getTotalTime() {
+
+			long time = 0;
+			for (Entry<T> entry : entries) {
+				time += entry.time;
+			}
+
+			return time;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.xml.XmlFactory;
+
+// Walks a (large) document with the underlying StAX parser and binds repeated elements one at a time,
+// only one element is held in memory. The direct children of the root element are bound, or the direct
+// children of every element with the given container name (for example the wrapper of a wrapped list).
+public class XmlElementReader<T> implements Iterator<T>, Closeable {
+
+	private final InputStream inputStream;
+	private final XmlFactory factory;
+	private final ObjectReader reader;
+	private final String containerName;
+	private final XMLStreamReader streamReader;
+	private int depth = 0;
+	private int containerDepth;
+	private boolean pending = false;
+	private boolean done = false;
+
+	public XmlElementReader(InputStream inputStream, Class<T> type) throws IOException {
+		this(inputStream, type, null);
+	}
+
+	public XmlElementReader(InputStream inputStream, Class<T> type, String containerName) throws IOException {
+		this(inputStream, XmlUtils.getReader(type), containerName);
+	}
+
+	public XmlElementReader(InputStream inputStream, ObjectReader reader, String containerName) throws IOException {
+
+		this.inputStream = inputStream;
+		this.factory = XmlUtils.getXmlMapper().getFactory();
+		this.reader = reader;
+		this.containerName = containerName;
+		this.containerDepth = containerName == null ? 1 : -1;
+
+		try {
+			streamReader = factory.getXMLInputFactory().createXMLStreamReader(inputStream);
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (!pending && !done) {
+			try {
+				pending = advance();
+				done = !pending;
+			} catch (XMLStreamException e) {
+				throw new UncheckedIOException(new IOException(e));
+			}
+		}
+
+		return pending;
+
+	}
+
+	private boolean advance() throws XMLStreamException {
+
+		while (streamReader.hasNext()) {
+
+			int event = streamReader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+
+				depth++;
+
+				if (containerDepth > 0 && depth == containerDepth + 1) {
+					return true;
+				} else if (containerDepth < 0 && containerName.equals(streamReader.getLocalName())) {
+					containerDepth = depth;
+				}
+
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+
+				if (containerName != null && depth == containerDepth) {
+					containerDepth = -1;
+				}
+
+				depth--;
+
+			}
+
+		}
+
+		return false;
+
+	}
+
+	@Override
+	public T next() {
+
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		pending = false;
+
+		try {
+
+			// The parser leaves the stream reader at the end element of the bound element
+			T value = reader.readValue(factory.createParser(streamReader));
+			depth--;
+
+			return value;
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+	}
+
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+			try {
+				close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		done = true;
+		pending = false;
+
+		try {
+			streamReader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			inputStream.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.namespace.QName;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import com.fasterxml.jackson.dataformat.xml.util.DefaultXmlPrettyPrinter;
+
+// Writes a (large) collection one element at a time below a single root element, the output is
+// flushed every flush interval elements so memory use stays constant. Can be read with XmlElementReader.
+public class XmlElementWriter<T> implements Closeable, Flushable {
+
+	public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+	private final ObjectWriter writer;
+	private final String elementName;
+	private final OutputStream outputStream;
+	private final ToXmlGenerator generator;
+	private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+	private int count = 0;
+
+	public XmlElementWriter(OutputStream outputStream, Class<T> type, String rootName, String elementName) throws IOException {
+		this(outputStream, XmlUtils.getWriter(type), rootName, elementName, true);
+	}
+
+	public XmlElementWriter(OutputStream outputStream, Class<T> type, String rootName, String elementName, boolean indent) throws IOException {
+		this(outputStream, XmlUtils.getWriter(type), rootName, elementName, indent);
+	}
+
+	public XmlElementWriter(OutputStream outputStream, ObjectWriter writer, String rootName, String elementName, boolean indent) throws IOException {
+
+		// The flush interval controls flushing, not every written value
+		ObjectWriter elementWriter = writer.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		this.writer = indent ? elementWriter.with(SerializationFeature.INDENT_OUTPUT) : elementWriter.without(SerializationFeature.INDENT_OUTPUT);
+		this.elementName = elementName;
+		this.outputStream = outputStream;
+
+		// The xml writer also flushes the stream whenever its buffer is full
+		generator = XmlUtils.getXmlMapper().getFactory().createGenerator(new NonFlushingOutputStream(outputStream));
+		if (indent) {
+			generator.setPrettyPrinter(new DefaultXmlPrettyPrinter());
+		}
+
+		generator.setNextName(new QName(rootName));
+		generator.writeStartObject();
+
+	}
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void write(T value) throws IOException {
+
+		generator.writeFieldName(elementName);
+		writer.writeValue(generator, value);
+
+		count++;
+		if (flushInterval > 0 && count % flushInterval == 0) {
+			flush();
+		}
+
+	}
+
+	public void writeAll(Iterable<? extends T> values) throws IOException {
+		for (T value : values) {
+			write(value);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		generator.flush();
+		outputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		try {
+			generator.writeEndObject();
+		} finally {
+			generator.close();
+		}
+
+	}
+
+	private static class NonFlushingOutputStream extends FilterOutputStream {
+
+		private NonFlushingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() {
+
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.glasspath.common.Common;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// Saves documents only when their content changed, documents are serialized in a reusable buffer and
+// the hash is compared with the hash of the last persisted version (or of the file on disk when the
+// file wasn't saved by this saver yet, or was changed since). Changed documents are written to a temporary
+// file and forced to disk before they are moved in place, so readers never see a partially written file.
+public class XmlFileSaver {
+
+	private static final String HASH_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+	private final Buffer buffer = new Buffer();
+	private final MessageDigest digest;
+	private final Map<Path, Persisted> persisted = new ConcurrentHashMap<>();
+	private final LongAdder writtenCount = new LongAdder();
+	private final LongAdder skippedCount = new LongAdder();
+
+	public XmlFileSaver() {
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public boolean save(File file, Object value) throws IOException {
+		return save(file, value, XmlUtils.getWriter(value.getClass()));
+	}
+
+	// Returns true if the file was written, false if the content didn't change
+	public synchronized boolean save(File file, Object value, ObjectWriter writer) throws IOException {
+
+		Path path = file.toPath().toAbsolutePath();
+
+		buffer.reset();
+		writer.writeValue(buffer, value);
+
+		byte[] hash = hash(buffer.getBytes(), buffer.size());
+
+		BasicFileAttributes attributes = Files.isRegularFile(path) ? Files.readAttributes(path, BasicFileAttributes.class) : null;
+		if (attributes != null && attributes.size() == buffer.size()) {
+
+			// The last persisted hash is only used if the file wasn't changed by someone else since
+			byte[] persistedHash;
+			Persisted last = persisted.get(path);
+			if (last != null && last.size == attributes.size() && last.modified == attributes.lastModifiedTime().toMillis()) {
+				persistedHash = last.hash;
+			} else {
+				byte[] bytes = Files.readAllBytes(path);
+				persistedHash = hash(bytes, bytes.length);
+			}
+
+			if (Arrays.equals(hash, persistedHash)) {
+				persisted.put(path, new Persisted(hash, attributes.size(), attributes.lastModifiedTime().toMillis()));
+				skippedCount.increment();
+				return false;
+			}
+
+		}
+
+		writeAtomically(path, buffer.getBytes(), buffer.size());
+
+		attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		persisted.put(path, new Persisted(hash, attributes.size(), attributes.lastModifiedTime().toMillis()));
+		writtenCount.increment();
+
+		return true;
+
+	}
+
+	// Forgets the persisted hash, the next save compares with the file on disk
+	public void invalidate(File file) {
+		persisted.remove(file.toPath().toAbsolutePath());
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.sum();
+	}
+
+	public long getSkippedCount() {
+		return skippedCount.sum();
+	}
+
+	private byte[] hash(byte[] bytes, int length) {
+		digest.reset();
+		digest.update(bytes, 0, length);
+		return digest.digest();
+	}
+
+	static void writeAtomically(Path path, byte[] bytes, int length) throws IOException {
+
+		// A unique temporary file per write, concurrent writes of the same file don't share it. Not created with
+		// Files.createTempFile() because the file would then be moved in place with owner only permissions.
+		Path tempPath;
+		FileChannel channel;
+		while (true) {
+			tempPath = path.resolveSibling(path.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				channel = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				break;
+			} catch (FileAlreadyExistsException e) {
+				// Try another name
+			}
+		}
+
+		boolean moved = false;
+		try {
+
+			try {
+
+				ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+
+				// Make sure the content is on disk before the file is replaced, a crash could otherwise leave an empty file
+				channel.force(true);
+
+			} finally {
+				channel.close();
+			}
+
+			try {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			moved = true;
+
+		} finally {
+			if (!moved) {
+				try {
+					Files.deleteIfExists(tempPath);
+				} catch (Exception e) {
+					Common.LOGGER.warn("Could not delete temporary file: " + tempPath, e); //$NON-NLS-1$
+				}
+			}
+		}
+
+	}
+
+	private static class Persisted {
+
+		private final byte[] hash;
+		private final long size;
+		private final long modified;
+
+		private Persisted(byte[] hash, long size, long modified) {
+			this.hash = hash;
+			this.size = size;
+			this.modified = modified;
+		}
+
+	}
+
+	private static class Buffer extends ByteArrayOutputStream {
+
+		private Buffer() {
+			super(8192);
+		}
+
+		private byte[] getBytes() {
+			return buf;
+		}
+
+	}
+
+}
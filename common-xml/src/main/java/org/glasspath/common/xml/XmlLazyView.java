@@ -0,0 +1,288 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.codehaus.stax2.XMLStreamReader2;
+import org.codehaus.stax2.ri.Stax2ReaderAdapter;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.PropertyName;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+
+// Indexes the offsets of the elements below the root element of a document in a single streaming pass,
+// properties of the target type are only decoded when they are requested (decoded values are cached).
+public class XmlLazyView<T> {
+
+	private static final Map<Class<?>, Map<String, PropertyReader>> PROPERTY_READERS = new ConcurrentHashMap<>();
+	private static final Pattern ENCODING_PATTERN = Pattern.compile("^<\\?xml\\s[^>]*?encoding\\s*=\\s*[\"']([^\"']+)[\"']"); //$NON-NLS-1$
+
+	private final char[] chars;
+	private final int length;
+	private final Class<T> type;
+	private final Map<String, PropertyReader> propertyReaders;
+	private final Map<String, List<int[]>> elements = new LinkedHashMap<>();
+	private final Map<String, String> attributes = new HashMap<>();
+	private final Map<String, Object> values = new HashMap<>();
+
+	public XmlLazyView(char[] chars, Class<T> type) throws IOException {
+		this(chars, chars.length, type);
+	}
+
+	public XmlLazyView(char[] chars, int length, Class<T> type) throws IOException {
+
+		this.chars = chars;
+		this.length = length;
+		this.type = type;
+		this.propertyReaders = PROPERTY_READERS.computeIfAbsent(type, XmlLazyView::createPropertyReaders);
+
+		try {
+			index();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+
+	}
+
+	public static <T> XmlLazyView<T> read(Path path, Class<T> type) throws IOException {
+		return read(Files.readAllBytes(path), type);
+	}
+
+	// The document is decoded once, in the encoding of its byte order mark or xml declaration (UTF-8 by default)
+	public static <T> XmlLazyView<T> read(byte[] bytes, Class<T> type) throws IOException {
+
+		int offset = 0;
+		Charset charset = StandardCharsets.UTF_8;
+
+		if (bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+			offset = 3;
+		} else if (bytes.length >= 2 && ((bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF) || (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE))) {
+			charset = StandardCharsets.UTF_16; // Consumes the byte order mark
+		}
+
+		if (offset > 0 || charset == StandardCharsets.UTF_8) {
+
+			// The declaration only contains ascii characters, so it can be matched before decoding
+			Matcher matcher = ENCODING_PATTERN.matcher(new String(bytes, offset, Math.min(bytes.length - offset, 256), StandardCharsets.ISO_8859_1));
+			if (matcher.find()) {
+				try {
+					charset = Charset.forName(matcher.group(1));
+				} catch (IllegalArgumentException e) {
+					throw new UnsupportedEncodingException(matcher.group(1));
+				}
+			}
+
+		}
+
+		// The decoded buffer starts at index 0 of its backing array, its capacity can exceed the decoded length
+		CharBuffer buffer = charset.decode(ByteBuffer.wrap(bytes, offset, bytes.length - offset));
+
+		return new XmlLazyView<>(buffer.array(), buffer.limit(), type);
+
+	}
+
+	private static Map<String, PropertyReader> createPropertyReaders(Class<?> type) {
+
+		XmlMapper mapper = XmlUtils.getXmlMapper();
+		BeanDescription description = mapper.getDeserializationConfig().introspect(mapper.constructType(type));
+
+		Map<String, PropertyReader> readers = new HashMap<>();
+		for (BeanPropertyDefinition property : description.findProperties()) {
+			JavaType propertyType = property.getPrimaryType();
+			if (propertyType != null) {
+
+				// Without a wrapper the elements of a list are direct children of the root element (byte
+				// and char arrays are bound from text), they need a synthetic parent element to be bound
+				boolean list = propertyType.isCollectionLikeType() || (propertyType.isArrayType() && !propertyType.hasRawClass(byte[].class) && !propertyType.hasRawClass(char[].class));
+				boolean unwrapped = list && property.getWrapperName() == PropertyName.NO_NAME; // Equal to (but not the same as) USE_DEFAULT
+
+				readers.put(property.getName(), new PropertyReader(mapper.readerFor(propertyType), unwrapped));
+
+			}
+		}
+
+		return readers;
+
+	}
+
+	private void index() throws XMLStreamException {
+
+		XMLStreamReader2 reader = Stax2ReaderAdapter.wrapIfNecessary(XmlUtils.getXmlMapper().getFactory().getXMLInputFactory().createXMLStreamReader(new CharArrayReader(chars, 0, length)));
+
+		try {
+
+			int depth = 0;
+			while (reader.hasNext()) {
+
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+
+					depth++;
+
+					if (depth == 1) {
+
+						for (int i = 0; i < reader.getAttributeCount(); i++) {
+							attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+						}
+
+					} else if (depth == 2) {
+
+						String name = reader.getLocalName();
+						int start = (int) reader.getLocationInfo().getStartingCharOffset();
+						reader.skipElement();
+						int end = (int) reader.getLocationInfo().getEndingCharOffset();
+
+						if (start < 0 || end < start) {
+							throw new XMLStreamException("Element offsets are not supported by xml parser"); //$NON-NLS-1$
+						}
+
+						elements.computeIfAbsent(name, n -> new ArrayList<>(1)).add(new int[] { start, end });
+						depth--;
+
+					}
+
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+
+			}
+
+		} finally {
+			reader.close();
+		}
+
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	// Names of the elements directly below the root element
+	public Set<String> getElementNames() {
+		return Collections.unmodifiableSet(elements.keySet());
+	}
+
+	public boolean has(String property) {
+		return elements.containsKey(property) || attributes.containsKey(property);
+	}
+
+	// Converts the bound value when it isn't of the requested type, for example a String property read as Integer
+	public <V> V get(String property, Class<V> valueType) throws IOException {
+
+		Object value = get(property);
+		if (value == null || valueType.isInstance(value)) {
+			return valueType.cast(value);
+		} else {
+			return XmlUtils.getXmlMapper().convertValue(value, valueType);
+		}
+
+	}
+
+	public Object get(String property) throws IOException {
+
+		if (values.containsKey(property)) {
+			return values.get(property);
+		}
+
+		PropertyReader reader = propertyReaders.get(property);
+		if (reader == null) {
+			throw new IllegalArgumentException("Unknown property " + property + " for " + type.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		Object value = null;
+
+		List<int[]> ranges = elements.get(property);
+		if (ranges != null) {
+			value = reader.reader.readValue(getElementReader(property, ranges, reader.unwrapped));
+		} else if (attributes.containsKey(property)) {
+			value = XmlUtils.getXmlMapper().convertValue(attributes.get(property), reader.reader.getValueType());
+		}
+
+		values.put(property, value);
+
+		return value;
+
+	}
+
+	private CharArrayReader getElementReader(String name, List<int[]> ranges, boolean unwrapped) {
+
+		if (!unwrapped) {
+			int[] range = ranges.get(ranges.size() - 1); // Like a full bind, the last occurrence wins
+			return new CharArrayReader(chars, range[0], range[1] - range[0]);
+		}
+
+		// Unwrapped elements (also a single one), bind them as children of a wrapper element
+		StringBuilder builder = new StringBuilder();
+		builder.append('<').append(name).append('>');
+		for (int[] range : ranges) {
+			builder.append(chars, range[0], range[1] - range[0]);
+		}
+		builder.append("</").append(name).append('>'); //$NON-NLS-1$
+
+		return new CharArrayReader(builder.toString().toCharArray());
+
+	}
+
+	// Binds the complete document
+	public T materialize() throws IOException {
+		return XmlUtils.getReader(type).readValue(new CharArrayReader(chars, 0, length));
+	}
+
+	private static class PropertyReader {
+
+		private final ObjectReader reader;
+		private final boolean unwrapped;
+
+		private PropertyReader(ObjectReader reader, boolean unwrapped) {
+			this.reader = reader;
+			this.unwrapped = unwrapped;
+		}
+
+	}
+
+}
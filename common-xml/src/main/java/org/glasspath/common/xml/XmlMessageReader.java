@@ -0,0 +1,74 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.IOException;
+
+import org.glasspath.common.Common;
+import org.glasspath.common.io.MarkerMessageFramer;
+import org.glasspath.common.io.MessageFramer;
+import org.glasspath.common.io.MessageReader;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+// Binds every message (one XML document) directly from the buffer of the reader, without creating
+// intermediate strings or copies. Messages that span several reads are accumulated by the reader.
+public abstract class XmlMessageReader<T> extends MessageReader {
+
+	private final ObjectReader reader;
+
+	public XmlMessageReader(Class<T> type, byte[] messageStartsWith, byte[] messageEndsWith) {
+		this(type, new MarkerMessageFramer(messageStartsWith, messageEndsWith));
+	}
+
+	public XmlMessageReader(Class<T> type, MessageFramer framer) {
+		this(XmlUtils.getReader(type), framer);
+	}
+
+	public XmlMessageReader(ObjectReader reader, MessageFramer framer) {
+		super(framer);
+		this.reader = reader;
+	}
+
+	@Override
+	protected void messageReceived(byte[] bytes, int messageStart, int messageEnd) {
+
+		T value;
+		try {
+			value = reader.readValue(bytes, messageStart, (messageEnd + 1) - messageStart);
+		} catch (IOException e) {
+			messageFailed(bytes, messageStart, messageEnd, e);
+			return;
+		}
+
+		valueReceived(value);
+
+	}
+
+	protected abstract void valueReceived(T value);
+
+	protected void messageFailed(byte[] bytes, int messageStart, int messageEnd, IOException exception) {
+		Common.LOGGER.error("Exception while parsing xml message: ", exception); //$NON-NLS-1$
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import org.glasspath.common.Common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Opt-in cache which keeps a binary (Smile) snapshot next to an xml file, the snapshot is used
+// instead of parsing the xml file as long as size, modification time and content hash still match.
+// Snapshots are best effort, failures while reading or writing them fall back to the xml file.
+public class XmlSnapshotCache {
+
+	public static final String DEFAULT_SUFFIX = ".snapshot"; //$NON-NLS-1$
+
+	private static final int MAGIC = 0x47505343; // 'GPSC'
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 32;
+
+	private final ObjectMapper smileMapper;
+	private final String suffix;
+
+	public XmlSnapshotCache() {
+		this(DEFAULT_SUFFIX);
+	}
+
+	public XmlSnapshotCache(String suffix) {
+		this.smileMapper = XmlUtils.createSmileMapper();
+		this.suffix = suffix;
+	}
+
+	public File getSnapshotFile(File xmlFile) {
+		return new File(xmlFile.getParentFile(), xmlFile.getName() + suffix);
+	}
+
+	public <T> T read(File xmlFile, Class<T> type) throws IOException {
+
+		Path xmlPath = xmlFile.toPath();
+		Path snapshotPath = getSnapshotFile(xmlFile).toPath();
+
+		long modified = Files.getLastModifiedTime(xmlPath).toMillis();
+		byte[] xmlBytes = Files.readAllBytes(xmlPath);
+		long hash = hash(xmlBytes);
+
+		if (Files.exists(snapshotPath)) {
+
+			try {
+
+				byte[] snapshotBytes = Files.readAllBytes(snapshotPath);
+				if (isValid(snapshotBytes, xmlBytes.length, modified, hash)) {
+					return smileMapper.readerFor(type).readValue(snapshotBytes, HEADER_LENGTH, snapshotBytes.length - HEADER_LENGTH);
+				}
+
+			} catch (Exception e) {
+				Common.LOGGER.warn("Could not read snapshot, loading xml file: " + snapshotPath, e); //$NON-NLS-1$
+			}
+
+		}
+
+		T value = XmlUtils.getReader(type).readValue(xmlBytes);
+
+		try {
+			writeSnapshot(snapshotPath, value, xmlBytes.length, modified, hash);
+		} catch (Exception e) {
+			Common.LOGGER.warn("Could not write snapshot: " + snapshotPath, e); //$NON-NLS-1$
+		}
+
+		return value;
+
+	}
+
+	public void invalidate(File xmlFile) throws IOException {
+		Files.deleteIfExists(getSnapshotFile(xmlFile).toPath());
+	}
+
+	private boolean isValid(byte[] snapshotBytes, long size, long modified, long hash) {
+
+		if (snapshotBytes.length < HEADER_LENGTH) {
+			return false;
+		}
+
+		ByteBuffer header = ByteBuffer.wrap(snapshotBytes, 0, HEADER_LENGTH);
+
+		return header.getInt() == MAGIC && header.getInt() == VERSION && header.getLong() == size && header.getLong() == modified && header.getLong() == hash;
+
+	}
+
+	private void writeSnapshot(Path snapshotPath, Object value, long size, long modified, long hash) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(size);
+		out.writeLong(modified);
+		out.writeLong(hash);
+		out.flush();
+		smileMapper.writeValue(bytes, value);
+
+		// Write to a temporary file first so a partially written snapshot is never used
+		XmlFileSaver.writeAtomically(snapshotPath, bytes.toByteArray(), bytes.size());
+
+	}
+
+	private static long hash(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return crc.getValue();
+	}
+
+}
@@ -22,33 +22,121 @@
  */
 package org.glasspath.common.xml;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.fasterxml.jackson.dataformat.xml.JacksonXmlAnnotationIntrospector;
+import com.fasterxml.jackson.dataformat.xml.XmlFactory;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
 
 public class XmlUtils {
 
+	public enum Profile {
+
+		// Indented output (default)
+		READABLE,
+
+		// No indentation, for machine to machine exchange and caches
+		COMPACT,
+
+		// No indentation, generated (instead of reflection based) accessors for non-private members and
+		// buffers recycled through a shared pool instead of per thread
+		THROUGHPUT
+
+	}
+
+	// Mappers, readers and writers are thread-safe once configured, sharing them keeps Jackson's
+	// (de)serializer caches warm instead of introspecting all classes again for every document
+	private static final Map<Profile, XmlMapper> MAPPERS = new ConcurrentHashMap<>();
+	private static final Map<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+	private static final Map<Class<?>, ObjectWriter> WRITERS = new ConcurrentHashMap<>();
+
 	private XmlUtils() {
 
 	}
 
+	// Shared mapper, should not be reconfigured, use createXmlMapper() for a private copy
+	public static XmlMapper getXmlMapper() {
+		return getXmlMapper(Profile.READABLE);
+	}
+
+	public static XmlMapper getXmlMapper(Profile profile) {
+		return MAPPERS.computeIfAbsent(profile, XmlUtils::createXmlMapper);
+	}
+
+	public static ObjectReader getReader(Class<?> type) {
+		return READERS.computeIfAbsent(type, t -> getXmlMapper().readerFor(t));
+	}
+
+	public static ObjectWriter getWriter(Class<?> type) {
+		return WRITERS.computeIfAbsent(type, t -> getXmlMapper().writerFor(t));
+	}
+
 	public static XmlMapper createXmlMapper() {
+		return createXmlMapper(Profile.READABLE);
+	}
+
+	public static XmlMapper createXmlMapper(Profile profile) {
 
-		XmlMapper mapper = new XmlMapper();
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
+		XmlMapper mapper;
+		if (profile == Profile.THROUGHPUT) {
+			mapper = new XmlMapper(XmlFactory.builder().recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool()).build());
+
+			// Afterburner injects generated classes (the intended module for java 8), blackbird uses
+			// method handles and lambda metafactory (made for java 9+), private members are still accessed
+			// through reflection by both so with FIELD/ANY visibility private fields are not optimized
+			if (System.getProperty("java.specification.version", "").startsWith("1.")) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				mapper.registerModule(new AfterburnerModule());
+			} else {
+				mapper.registerModule(new BlackbirdModule());
+			}
+
+		} else {
+			mapper = new XmlMapper();
+		}
+
+		if (profile == Profile.READABLE) {
+			mapper.enable(SerializationFeature.INDENT_OUTPUT);
+		}
+
+		configure(mapper);
+
+		return mapper;
+
+	}
+
+	// Binary (Smile) mapper with the same data binding configuration and annotation handling
+	// as the xml mapper, used for snapshots of xml documents
+	public static ObjectMapper createSmileMapper() {
+
+		SmileMapper mapper = new SmileMapper();
+		mapper.setAnnotationIntrospector(new JacksonXmlAnnotationIntrospector());
+		configure(mapper);
+
+		return mapper;
+
+	}
+
+	private static void configure(ObjectMapper mapper) {
 		mapper.configure(MapperFeature.PROPAGATE_TRANSIENT_MARKER, true);
 		mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 		mapper.configure(DeserializationFeature.FAIL_ON_UNRESOLVED_OBJECT_IDS, false);
 		mapper.setVisibility(PropertyAccessor.ALL, Visibility.NONE);
 		mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
 		mapper.setSerializationInclusion(Include.NON_NULL);
-
-		return mapper;
-
 	}
 
 }
@@ -0,0 +1,132 @@
+/*
+ * This file is part of Glasspath Common.
+ * Copyright (C) 2011 - 2023 Remco Poelstra
+ * Authors: Remco Poelstra
+ * 
+ * This program is offered under a commercial and under the AGPL license.
+ * For commercial licensing, contact us at https://glasspath.org. For AGPL licensing, see below.
+ * 
+ * AGPL licensing:
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.glasspath.common.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
+import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
+
+public class XmlLazyViewTest {
+
+	public static class Item {
+
+		private int a;
+		private String b;
+
+		public Item() {
+
+		}
+
+		public Item(int a, String b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public String toString() {
+			return a + "," + b; //$NON-NLS-1$
+		}
+
+	}
+
+	public static class Document {
+
+		@JacksonXmlProperty(isAttribute = true)
+		private int id;
+
+		@JacksonXmlElementWrapper(useWrapping = false)
+		private List<Item> item;
+
+		@JacksonXmlElementWrapper(useWrapping = false)
+		private Item[] entry;
+
+		private List<Item> wrapped;
+
+		private String name;
+
+	}
+
+	@Test
+	public void testUnwrappedLists() throws Exception {
+		for (int count = 0; count <= 2; count++) {
+
+			Document document = new Document();
+			document.id = count;
+			if (count > 0) {
+				document.item = new ArrayList<>();
+				document.entry = new Item[count];
+				document.wrapped = new ArrayList<>();
+				for (int i = 0; i < count; i++) {
+					document.item.add(new Item(i, "item" + i)); //$NON-NLS-1$
+					document.entry[i] = new Item(i, "entry" + i); //$NON-NLS-1$
+					document.wrapped.add(new Item(i, "wrapped" + i)); //$NON-NLS-1$
+				}
+			}
+
+			XmlLazyView<Document> view = XmlLazyView.read(XmlUtils.getWriter(Document.class).writeValueAsBytes(document), Document.class);
+			Document materialized = view.materialize();
+
+			assertEquals(String.valueOf(materialized.item), String.valueOf(view.get("item"))); //$NON-NLS-1$
+			assertEquals(Arrays.toString(materialized.entry), Arrays.toString(view.get("entry", Item[].class))); //$NON-NLS-1$
+			assertEquals(String.valueOf(materialized.wrapped), String.valueOf(view.get("wrapped"))); //$NON-NLS-1$
+			assertEquals(count, (int) view.get("id", Integer.class)); //$NON-NLS-1$
+
+			if (count == 0) {
+				assertNull(view.get("item")); //$NON-NLS-1$
+			} else {
+				assertEquals(count, ((List<?>) view.get("item")).size()); //$NON-NLS-1$
+			}
+
+		}
+	}
+
+	@Test
+	public void testDeclaredEncoding() throws Exception {
+
+		String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Document id=\"1\"><name>café</name></Document>"; //$NON-NLS-1$
+		assertEquals("café", XmlLazyView.read(xml.getBytes(StandardCharsets.ISO_8859_1), Document.class).get("name")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		xml = "<?xml version=\"1.0\" encoding=\"UTF-16\"?><Document id=\"1\"><name>café</name></Document>"; //$NON-NLS-1$
+		assertEquals("café", XmlLazyView.read(xml.getBytes(StandardCharsets.UTF_16), Document.class).get("name")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		xml = "﻿<Document id=\"1\"><name>café</name></Document>"; //$NON-NLS-1$
+		assertEquals("café", XmlLazyView.read(xml.getBytes(StandardCharsets.UTF_8), Document.class).get("name")); //$NON-NLS-1$ //$NON-NLS-2$
+
+	}
+
+	@Test(expected = UnsupportedEncodingException.class)
+	public void testUnsupportedEncoding() throws Exception {
+		XmlLazyView.read("<?xml version=\"1.0\" encoding=\"X-UNKNOWN\"?><Document/>".getBytes(StandardCharsets.US_ASCII), Document.class); //$NON-NLS-1$
+	}
+
+}